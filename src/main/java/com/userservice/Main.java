@@ -1,12 +1,14 @@
 package com.userservice;
 
 import com.userservice.dao.UserDAO;
+import com.userservice.dao.UserPage;
+import com.userservice.dao.UserPatch;
+import com.userservice.dto.UserStatistics;
 import com.userservice.entity.User;
 import com.userservice.util.HibernateUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
 import java.util.Optional;
 import java.util.Scanner;
 
@@ -24,6 +26,9 @@ public class Main {
     
     // Scanner для чтения пользовательского ввода
     private static Scanner scanner = new Scanner(System.in);
+    
+    // Количество пользователей на одной странице списка
+    private static final int PAGE_SIZE = 20;
 
     /**
      * Точка входа в приложение
@@ -36,6 +41,9 @@ public class Main {
             // Проверяем подключение к базе данных при запуске
             logger.info("Проверка подключения к базе данных...");
             
+            // Загружаем занятые email в фильтр в фоне, чтобы не задерживать запуск
+            startEmailFilterLoading();
+            
             // Выводим приветствие
             printWelcomeMessage();
             
@@ -51,6 +59,22 @@ public class Main {
         }
     }
 
+    /**
+     * Запуск фоновой загрузки занятых email в фильтр
+     * Пока загрузка не завершена, проверки email выполняются запросами к базе данных
+     */
+    private static void startEmailFilterLoading() {
+        Thread loader = new Thread(() -> {
+            try {
+                userDAO.loadEmailFilter();
+            } catch (Exception e) {
+                logger.error("Ошибка при загрузке фильтра email: {}", e.getMessage(), e);
+            }
+        }, "email-filter-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
     /**
      * Вывод приветственного сообщения
      */
@@ -196,12 +220,6 @@ public class Main {
                 return;
             }
             
-            // Проверяем, не существует ли пользователь с таким email
-            if (userDAO.existsByEmail(email)) {
-                System.out.println("Пользователь с таким email уже существует!");
-                return;
-            }
-            
             System.out.print("Введите возраст (или нажмите Enter, чтобы пропустить): ");
             if (!scanner.hasNextLine()) {
                 System.out.println("Ввод завершен.");
@@ -223,9 +241,12 @@ public class Main {
                 }
             }
             
-            // Создаем нового пользователя
-            User newUser = new User(name, email, age);
-            User savedUser = userDAO.createUser(newUser);
+            // Создаем нового пользователя одним запросом: занятость email проверяет сама база
+            User savedUser = new User(name, email, age);
+            if (!userDAO.createIfAbsent(savedUser)) {
+                System.out.println("Пользователь с таким email уже существует!");
+                return;
+            }
             
             System.out.println("✓ Пользователь успешно создан!");
             System.out.println("ID: " + savedUser.getId());
@@ -275,26 +296,42 @@ public class Main {
     }
 
     /**
-     * Просмотр всех пользователей
+     * Просмотр всех пользователей постранично
      */
     private static void viewAllUsers() {
         System.out.println("\n--- СПИСОК ВСЕХ ПОЛЬЗОВАТЕЛЕЙ ---");
         
         try {
-            List<User> users = userDAO.findAllUsers();
+            String cursor = null;
+            int shown = 0;
             
-            if (users.isEmpty()) {
-                System.out.println("В системе нет пользователей.");
-                return;
+            while (true) {
+                UserPage page = userDAO.findUsersPage(cursor, PAGE_SIZE);
+                
+                if (shown == 0 && page.getUsers().isEmpty()) {
+                    System.out.println("В системе нет пользователей.");
+                    return;
+                }
+                
+                for (User user : page.getUsers()) {
+                    printUserDetails(user);
+                    System.out.println("-------------------------------------");
+                }
+                shown += page.getUsers().size();
+                
+                if (!page.hasNext()) {
+                    break;
+                }
+                cursor = page.getNextCursor();
+                
+                // Следующая страница загружается только по запросу пользователя
+                System.out.print("Показано " + shown + ". Enter - следующая страница, q - завершить просмотр: ");
+                if (!scanner.hasNextLine() || scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                    break;
+                }
             }
             
-            System.out.println("Найдено пользователей: " + users.size());
-            System.out.println("=====================================");
-            
-            for (User user : users) {
-                printUserDetails(user);
-                System.out.println("-------------------------------------");
-            }
+            System.out.println("Показано пользователей: " + shown);
             
         } catch (Exception e) {
             logger.error("Ошибка при получении списка пользователей: {}", e.getMessage(), e);
@@ -333,20 +370,20 @@ public class Main {
             
             System.out.println("\nВведите новые данные (нажмите Enter, чтобы оставить текущее значение):");
             
+            // Собираем только измененные поля, чтобы записать их одним UPDATE
+            UserPatch patch = new UserPatch();
+            
             System.out.print("Новое имя [" + user.getName() + "]: ");
             String newName = scanner.nextLine().trim();
-            if (!newName.isEmpty()) {
+            if (!newName.isEmpty() && !newName.equals(user.getName())) {
+                patch.setName(newName);
                 user.setName(newName);
             }
             
             System.out.print("Новый email [" + user.getEmail() + "]: ");
             String newEmail = scanner.nextLine().trim();
-            if (!newEmail.isEmpty()) {
-                // Проверяем, не занят ли новый email другим пользователем
-                if (!newEmail.equals(user.getEmail()) && userDAO.existsByEmail(newEmail)) {
-                    System.out.println("Email уже используется другим пользователем!");
-                    return;
-                }
+            if (!newEmail.isEmpty() && !newEmail.equals(user.getEmail())) {
+                patch.setEmail(newEmail);
                 user.setEmail(newEmail);
             }
             
@@ -356,6 +393,7 @@ public class Main {
                 try {
                     Integer newAge = Integer.parseInt(newAgeInput);
                     if (newAge >= 0 && newAge <= 150) {
+                        patch.setAge(newAge);
                         user.setAge(newAge);
                     } else {
                         System.out.println("Некорректный возраст, значение не изменено.");
@@ -365,11 +403,35 @@ public class Main {
                 }
             }
             
-            // Обновляем пользователя
-            User updatedUser = userDAO.updateUser(user);
+            if (patch.isEmpty()) {
+                System.out.println("Данные не изменены.");
+                return;
+            }
+            
+            // Проверка email и обновление выполняются в одной транзакции на одном соединении
+            long expectedVersion = user.getVersion();
+            boolean updated = userDAO.inTransaction(dao -> {
+                // Проверяем, не занят ли новый email другим пользователем
+                if (patch.hasEmail() && dao.existsByEmail(user.getEmail())) {
+                    System.out.println("Email уже используется другим пользователем!");
+                    return false;
+                }
+                
+                // Обновляем только измененные колонки, если запись не менялась с момента чтения
+                if (!dao.compareAndSetUser(id, expectedVersion, patch)) {
+                    System.out.println("✗ Пользователь был изменен или удален другим пользователем. Повторите обновление.");
+                    return false;
+                }
+                return true;
+            });
+            
+            if (!updated) {
+                return;
+            }
+            user.setVersion(expectedVersion + 1);
             
             System.out.println("✓ Данные пользователя успешно обновлены!");
-            printUserDetails(updatedUser);
+            printUserDetails(user);
             
         } catch (Exception e) {
             logger.error("Ошибка при обновлении пользователя: {}", e.getMessage(), e);
@@ -466,27 +528,20 @@ public class Main {
         System.out.println("\n--- СТАТИСТИКА ПОЛЬЗОВАТЕЛЕЙ ---");
         
         try {
-            long totalUsers = userDAO.getUserCount();
-            System.out.println("Общее количество пользователей: " + totalUsers);
+            // Вся статистика считается в базе одним агрегирующим запросом
+            UserStatistics statistics = userDAO.getStatistics();
+            System.out.println("Общее количество пользователей: " + statistics.getTotalUsers());
             
-            if (totalUsers > 0) {
-                List<User> allUsers = userDAO.findAllUsers();
+            if (statistics.getTotalUsers() > 0) {
+                System.out.println("Пользователи с указанным возрастом: " + statistics.getUsersWithAge());
+                System.out.println("Пользователи без указанного возраста: " + statistics.getUsersWithoutAge());
                 
-                // Подсчитываем статистику по возрасту
-                long usersWithAge = allUsers.stream().filter(u -> u.getAge() != null).count();
-                long usersWithoutAge = totalUsers - usersWithAge;
-                
-                System.out.println("Пользователи с указанным возрастом: " + usersWithAge);
-                System.out.println("Пользователи без указанного возраста: " + usersWithoutAge);
-                
-                if (usersWithAge > 0) {
-                    double averageAge = allUsers.stream()
-                            .filter(u -> u.getAge() != null)
-                            .mapToInt(User::getAge)
-                            .average()
-                            .orElse(0.0);
-                    
-                    System.out.printf("Средний возраст: %.1f лет%n", averageAge);
+                if (statistics.getUsersWithAge() > 0) {
+                    System.out.printf("Средний возраст: %.1f лет%n", statistics.getAverageAge());
+                    System.out.println("Минимальный возраст: " + statistics.getMinAge() + " лет");
+                    System.out.println("Максимальный возраст: " + statistics.getMaxAge() + " лет");
+                    System.out.printf("Медианный возраст: %.1f лет%n", statistics.getMedianAge());
+                    System.out.printf("90%% пользователей не старше: %.1f лет%n", statistics.getPercentile90Age());
                 }
             }
             
@@ -517,7 +572,12 @@ public class Main {
                 scanner.close();
             }
             
-            // Закрываем SessionFactory
+            // Итоговая статистика кэшей приложения
+            logger.info("Ближний кэш: {}", userDAO.getNearCacheMetrics());
+            logger.info("Фильтр email: {}", userDAO.getEmailFilter());
+            
+            // Останавливаем фоновые задачи DAO и закрываем SessionFactory
+            userDAO.shutdown();
             HibernateUtil.shutdown();
             
             logger.info("Приложение завершено успешно");
@@ -0,0 +1,176 @@
+package com.userservice.dao;
+
+import com.userservice.entity.User;
+import com.userservice.util.HibernateUtil;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.query.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+ * DAO для массовых операций с пользователями на основе StatelessSession
+ * В отличие от UserDAO не ведет кэш первого уровня, не делает снимков сущностей
+ * и не выполняет dirty checking: каждая операция сразу превращается в SQL-запрос.
+ * Предназначен для фоновых задач загрузки, массового обновления и сканирования
+ */
+public class BulkUserDAO {
+
+    // Логгер для записи информации о массовых операциях
+    private static final Logger logger = LoggerFactory.getLogger(BulkUserDAO.class);
+
+    /**
+     * Массово вставить пользователей в одной транзакции
+     * Callback-и JPA (@PrePersist) в StatelessSession не вызываются, поэтому дата создания
+     * заполняется здесь, если она не была установлена
+     * @param users итератор пользователей для вставки
+     * @return количество вставленных пользователей
+     * @throws DataAccessException если произошла ошибка при вставке
+     */
+    public long insertUsers(Iterator<User> users) {
+        logger.info("Массовая вставка пользователей через StatelessSession");
+        
+        Transaction transaction = null;
+        // Email пакета добавляются в фильтр до фиксации; пакет завершается после нее или после отката
+        long filterEpoch = EmailBloomFilter.shared().beginBatch();
+        boolean committed = false;
+        try (StatelessSession session = HibernateUtil.getSessionFactory().openStatelessSession()) {
+            transaction = session.beginTransaction();
+            
+            long count = 0;
+            while (users.hasNext()) {
+                User user = users.next();
+                if (user.getCreatedAt() == null) {
+                    user.setCreatedAt(LocalDateTime.now());
+                }
+                EmailBloomFilter.shared().add(user.getEmail());
+                session.insert(user);
+                count++;
+            }
+            
+            transaction.commit();
+            committed = true;
+            UserResultCache.bumpVersion();
+
+            // Для больших загрузок одна сверка с базой дешевле, чем учет каждой записи
+            LiveUserStatistics.shared().markDirty();
+            MaintainedUserCount.shared().recordCreated(count);
+            
+            logger.info("Массово вставлено пользователей: {}", count);
+            return count;
+            
+        } catch (Exception e) {
+            rollbackQuietly(transaction);
+            logger.error("Ошибка при массовой вставке пользователей: {}", e.getMessage(), e);
+            throw DataAccessException.translate("Не удалось вставить пользователей", e);
+        } finally {
+            EmailBloomFilter.shared().endBatch(filterEpoch, committed);
+        }
+    }
+
+    /**
+     * Массово обновить пользователей в одной транзакции
+     * Каждый пользователь записывается одним UPDATE без предварительной загрузки и сравнения.
+     * После фиксации регионы пользователей в кэше второго уровня и ближний кэш очищаются целиком
+     * @param users итератор пользователей с заполненным ID
+     * @return количество обновленных пользователей
+     * @throws DataAccessException если произошла ошибка при обновлении
+     */
+    public long updateUsers(Iterator<User> users) {
+        logger.info("Массовое обновление пользователей через StatelessSession");
+        
+        Transaction transaction = null;
+        // Email пакета добавляются в фильтр до фиксации; пакет завершается после нее или после отката
+        long filterEpoch = EmailBloomFilter.shared().beginBatch();
+        boolean committed = false;
+        try (StatelessSession session = HibernateUtil.getSessionFactory().openStatelessSession()) {
+            transaction = session.beginTransaction();
+            
+            long count = 0;
+            while (users.hasNext()) {
+                User user = users.next();
+                EmailBloomFilter.shared().add(user.getEmail());
+                session.update(user);
+                count++;
+            }
+            
+            transaction.commit();
+            committed = true;
+            
+            // StatelessSession не обновляет кэш второго уровня, поэтому сбрасываем регионы пользователей
+            HibernateUtil.getSessionFactory().getCache().evictEntityData(User.class);
+            HibernateUtil.getSessionFactory().getCache().evictNaturalIdData(User.class);
+            UserNearCache.shared().invalidateAll();
+            UserResultCache.bumpVersion();
+            LiveUserStatistics.shared().markDirty();
+            
+            logger.info("Массово обновлено пользователей: {}", count);
+            return count;
+            
+        } catch (Exception e) {
+            rollbackQuietly(transaction);
+            logger.error("Ошибка при массовом обновлении пользователей: {}", e.getMessage(), e);
+            throw DataAccessException.translate("Не удалось обновить пользователей", e);
+        } finally {
+            EmailBloomFilter.shared().endBatch(filterEpoch, committed);
+        }
+    }
+
+    /**
+     * Просканировать всех пользователей серверным курсором
+     * Сущности не попадают в контекст персистентности, поэтому их не нужно отсоединять
+     * @param consumer обработчик, вызываемый для каждого пользователя (в порядке ID)
+     * @return количество обработанных пользователей
+     */
+    public long scanUsers(Consumer<User> consumer) {
+        logger.info("Сканирование пользователей через StatelessSession");
+        
+        Transaction transaction = null;
+        try (StatelessSession session = HibernateUtil.getSessionFactory().openStatelessSession()) {
+            // Курсор с fetch size работает в PostgreSQL только при выключенном autocommit
+            transaction = session.beginTransaction();
+            
+            Query<User> query = session.createQuery("FROM User u ORDER BY u.id", User.class);
+            query.setFetchSize(UserDAO.STREAM_FETCH_SIZE);
+            
+            long count = 0;
+            try (ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY)) {
+                while (results.next()) {
+                    consumer.accept((User) results.get(0));
+                    count++;
+                }
+            }
+            
+            transaction.commit();
+            
+            logger.info("Просканировано {} пользователей", count);
+            return count;
+            
+        } catch (Exception e) {
+            rollbackQuietly(transaction);
+            logger.error("Ошибка при сканировании пользователей: {}", e.getMessage(), e);
+            throw DataAccessException.translate("Ошибка при получении пользователей", e);
+        }
+    }
+
+    /**
+     * Откатить транзакцию, не маскируя исходную ошибку
+     * @param transaction транзакция или null, если она не была начата
+     */
+    private static void rollbackQuietly(Transaction transaction) {
+        if (transaction != null) {
+            try {
+                transaction.rollback();
+                logger.warn("Транзакция массовой операции отменена");
+            } catch (Exception rollbackEx) {
+                logger.error("Ошибка при откате транзакции: {}", rollbackEx.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.userservice.dao;
+
+/**
+ * Способ подсчета количества пользователей в UserDAO.getUserCount(CountMode)
+ */
+public enum CountMode {
+
+    /**
+     * Точное количество: SELECT COUNT(*), полный просмотр таблицы
+     * (результат кэшируется до следующего изменения таблицы)
+     */
+    EXACT,
+
+    /**
+     * Оценка по статистике планировщика PostgreSQL (pg_class.reltuples) без просмотра таблицы
+     * Точность зависит от давности последнего ANALYZE/VACUUM
+     */
+    ESTIMATED,
+
+    /**
+     * Количество, поддерживаемое в памяти по зафиксированным созданиям и удалениям
+     * Читается без обращения к базе; записи в обход приложения учитываются сверкой
+     * не позже заданной границы устарелости
+     */
+    MAINTAINED
+}
@@ -0,0 +1,161 @@
+package com.userservice.dao;
+
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLTransientException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Базовое исключение слоя доступа к данным
+ * Делится на повторяемые (RetryableDataAccessException) ошибки - временные сбои, после которых
+ * ту же операцию можно выполнить снова, и неповторяемые (NonRetryableDataAccessException) -
+ * ошибки в данных или в коде, которые повтор не исправит
+ */
+public abstract class DataAccessException extends RuntimeException {
+
+    // SQLState конфликтов параллельных транзакций, которые исчезают при повторе
+    private static final Set<String> RETRYABLE_SQL_STATES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        "40001", // serialization_failure
+        "40P01", // deadlock_detected
+        "55P03", // lock_not_available
+        "57P01", // admin_shutdown
+        "57P02", // crash_shutdown
+        "57P03", // cannot_connect_now
+        "53300"  // too_many_connections
+    )));
+
+    // Класс SQLState ошибок соединения (08xxx)
+    private static final String CONNECTION_EXCEPTION_CLASS = "08";
+
+    // SQLState исходной ошибки базы данных, null если ошибка возникла не в JDBC
+    private final String sqlState;
+
+    /**
+     * Конструктор исключения
+     * @param message описание операции, завершившейся ошибкой
+     * @param cause исходное исключение
+     * @param sqlState SQLState исходной ошибки или null
+     */
+    protected DataAccessException(String message, Throwable cause, String sqlState) {
+        super(message, cause);
+        this.sqlState = sqlState;
+    }
+
+    /**
+     * Получить SQLState исходной ошибки базы данных
+     * @return SQLState или null, если ошибка возникла не в JDBC
+     */
+    public String getSqlState() {
+        return sqlState;
+    }
+
+    /**
+     * Можно ли повторить операцию, завершившуюся этой ошибкой
+     * @return true для временных сбоев
+     */
+    public abstract boolean isRetryable();
+
+    /**
+     * Преобразовать исключение Hibernate/JDBC в типизированное исключение слоя доступа к данным
+     * @param message описание операции для сообщения об ошибке
+     * @param e исходное исключение
+     * @return повторяемое или неповторяемое исключение; уже преобразованное возвращается как есть
+     */
+    public static DataAccessException translate(String message, Throwable e) {
+        if (e instanceof DataAccessException) {
+            return (DataAccessException) e;
+        }
+        String sqlState = findSqlState(e);
+        String fullMessage = message + ": " + e.getMessage();
+        if (isTransient(e)) {
+            return new RetryableDataAccessException(fullMessage, e, sqlState);
+        }
+        return new NonRetryableDataAccessException(fullMessage, e, sqlState);
+    }
+
+    /**
+     * Преобразовать ошибку соединения при фиксации в неповторяемое исключение
+     * Если соединение потеряно во время COMMIT, неизвестно, зафиксирована ли транзакция.
+     * Повтор операции, результат которой описывает сделанное (создана или удалена запись),
+     * вернул бы неверный результат, если первая попытка на самом деле была зафиксирована
+     * @param message описание операции для сообщения об ошибке
+     * @param e ошибка соединения при фиксации
+     * @return неповторяемое исключение
+     */
+    public static DataAccessException commitOutcomeUnknown(String message, Throwable e) {
+        return new NonRetryableDataAccessException(
+            message + ": соединение потеряно во время фиксации, результат неизвестен: " + e.getMessage(),
+            e, findSqlState(e));
+    }
+
+    /**
+     * Проверить, является ли ошибка потерей соединения с базой данных
+     * @param e исключение для проверки
+     * @return true для SQLRecoverableException и SQLState класса 08
+     */
+    public static boolean isConnectionFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLRecoverableException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                String sqlState = ((SQLException) cause).getSQLState();
+                if (sqlState != null && sqlState.startsWith(CONNECTION_EXCEPTION_CLASS)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Проверить, является ли ошибка временным сбоем
+     * Временными считаются конфликты сериализации, взаимные блокировки, ожидание блокировки,
+     * потеря соединения и перегрузка сервера (по SQLState и типам исключений JDBC).
+     * Таймаут ожидания соединения из пула (SQLTransientConnectionException HikariCP) временным
+     * не считается: пул исчерпан, и повтор лишь добавил бы еще одно ожидание на все время таймаута
+     * @param e исключение для проверки
+     * @return true если операцию имеет смысл повторить
+     */
+    public static boolean isTransient(Throwable e) {
+        if (e instanceof DataAccessException) {
+            return ((DataAccessException) e).isRetryable();
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLTransientConnectionException) {
+                return false;
+            }
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLTransientException || cause instanceof SQLRecoverableException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                String sqlState = ((SQLException) cause).getSQLState();
+                if (sqlState != null && (RETRYABLE_SQL_STATES.contains(sqlState)
+                        || sqlState.startsWith(CONNECTION_EXCEPTION_CLASS))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Найти SQLState в цепочке причин исключения
+     * @param e исключение
+     * @return первый найденный SQLState или null
+     */
+    private static String findSqlState(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException && ((SQLException) cause).getSQLState() != null) {
+                return ((SQLException) cause).getSQLState();
+            }
+        }
+        return null;
+    }
+}
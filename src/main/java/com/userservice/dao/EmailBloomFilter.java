@@ -0,0 +1,537 @@
+package com.userservice.dao;
+
+import com.userservice.util.EnvironmentSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Фильтр Блума занятых email адресов
+ * Отрицательный ответ означает, что email не добавлялся в фильтр, и обращаться к базе данных
+ * не нужно. Положительный ответ означает только "возможно есть" и проверяется запросом.
+ * Email, записанные через DAO, добавляются в фильтр до записи в базу, поэтому фильтр не
+ * отвечает "нет" на email, который уже виден другим транзакциям. Пересборка, начатая до
+ * фиксации такой записи, ее не видит, поэтому прежний массив после замены еще учитывается:
+ * одиночные записи повторно добавляют email после фиксации (до этого прежний массив
+ * учитывается не меньше минуты), а пакетные записи (beginBatch/endBatch) удерживают прежние
+ * массивы до завершения пакета и следующей пересборки, начатой после его фиксации.
+ * Email, записанные в обход приложения, фильтр узнает только при пересборке: новый фильтр заполняется сканированием
+ * таблицы и атомарно заменяет текущий каждые USER_EMAIL_FILTER_REBUILD_MS (по умолчанию
+ * 10 минут). Поэтому отрицательный ответ для такого email может быть неверным не дольше
+ * периода пересборки плюс время одного сканирования. Пересборка также убирает email
+ * удаленных пользователей, накопленные ложные срабатывания. До окончания начальной загрузки
+ * фильтр на все запросы отвечает "возможно есть"
+ */
+public final class EmailBloomFilter {
+
+    // Логгер для записи информации о работе фильтра
+    private static final Logger logger = LoggerFactory.getLogger(EmailBloomFilter.class);
+
+    // Переменная окружения с ожидаемым количеством email адресов
+    private static final String EXPECTED_EMAILS_ENV = "USER_EMAIL_FILTER_EXPECTED";
+
+    // Ожидаемое количество email адресов по умолчанию
+    private static final int DEFAULT_EXPECTED_EMAILS = 1_000_000;
+
+    // Целевая доля ложных срабатываний при ожидаемом количестве адресов
+    private static final double TARGET_FALSE_POSITIVE_RATE = 0.01;
+
+    // Переменная окружения с периодом пересборки в миллисекундах
+    private static final String REBUILD_INTERVAL_ENV = "USER_EMAIL_FILTER_REBUILD_MS";
+
+    // Период пересборки по умолчанию
+    private static final Duration DEFAULT_REBUILD_INTERVAL = Duration.ofMinutes(10);
+
+    // Сколько после замены учитывается прежний фильтр: email одиночной записи, начатой до пересборки,
+    // мог попасть только в прежний фильтр, а в базу - уже после снимка сканирования, и остается
+    // только там, пока запись не добавит его повторно после фиксации
+    private static final long RETIRED_GRACE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    // Общий экземпляр фильтра для всех DAO
+    private static final EmailBloomFilter SHARED = fromEnvironment();
+
+    // Количество битов
+    private final long bitCount;
+
+    // Количество хеш-функций
+    private final int hashCount;
+
+    // Период пересборки
+    private final Duration rebuildInterval;
+
+    // Текущий массив и массив идущей пересборки, заменяются вместе одной записью
+    private volatile ActiveBits active;
+
+    // Массивы, замененные пересборками и еще учитываемые при проверке
+    private volatile Retired retired = Retired.NONE;
+
+    // Номер последней начатой пересборки
+    private final AtomicLong rebuildEpoch = new AtomicLong();
+
+    // Номер пересборки, до завершения которой прежние массивы удерживаются без ограничения времени
+    private final AtomicLong pinnedThroughEpoch = new AtomicLong(-1);
+
+    // Количество незавершенных пакетных записей
+    private final AtomicInteger activeBatches = new AtomicInteger();
+
+    // Сканирование для пересборки по запросу (задается при запуске периодической пересборки)
+    private volatile ToLongFunction<Consumer<String>> scan;
+
+    // Загружены ли в фильтр все существующие email адреса
+    private volatile boolean ready;
+
+    // Планировщик пересборки
+    private volatile ScheduledExecutorService scheduler;
+
+    // Статистика ответов
+    private final LongAdder definiteNegatives = new LongAdder();
+    private final LongAdder possiblePositives = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    /**
+     * Конструктор фильтра
+     * @param expectedEmails ожидаемое количество email адресов
+     * @param falsePositiveRate целевая доля ложных срабатываний (от 0 до 1)
+     * @param rebuildInterval период пересборки
+     */
+    EmailBloomFilter(int expectedEmails, double falsePositiveRate, Duration rebuildInterval) {
+        if (expectedEmails <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Некорректные параметры фильтра: " + expectedEmails + ", " + falsePositiveRate);
+        }
+        // Оптимальные размер m = -n ln p / (ln 2)^2 и количество хеш-функций k = m / n ln 2
+        long m = (long) Math.ceil(-expectedEmails * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bitCount = Math.max(64, (m + 63) / 64 * 64);
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedEmails * Math.log(2)));
+        this.rebuildInterval = rebuildInterval;
+        this.active = new ActiveBits(newBits(), null);
+    }
+
+    /**
+     * Создать фильтр по переменной окружения USER_EMAIL_FILTER_EXPECTED
+     * @return фильтр на 1000000 адресов, если переменная не задана или некорректна
+     */
+    private static EmailBloomFilter fromEnvironment() {
+        int expected = EnvironmentSettings.getInt(EXPECTED_EMAILS_ENV, DEFAULT_EXPECTED_EMAILS, 1);
+        return new EmailBloomFilter(expected, TARGET_FALSE_POSITIVE_RATE, rebuildIntervalFromEnvironment());
+    }
+
+    /**
+     * Получить период пересборки из переменной окружения USER_EMAIL_FILTER_REBUILD_MS
+     * @return значение переменной или 10 минут, если переменная не задана или некорректна
+     */
+    private static Duration rebuildIntervalFromEnvironment() {
+        return EnvironmentSettings.getMillis(REBUILD_INTERVAL_ENV, DEFAULT_REBUILD_INTERVAL, 1);
+    }
+
+    /**
+     * Получить общий экземпляр фильтра
+     * @return фильтр, используемый UserDAO и BulkUserDAO
+     */
+    static EmailBloomFilter shared() {
+        return SHARED;
+    }
+
+    /**
+     * Добавить email в фильтр
+     * @param email email адрес (null игнорируется)
+     */
+    void add(String email) {
+        if (email == null) {
+            return;
+        }
+        // Текущий массив и массив пересборки читаются одной записью: замена не может
+        // произойти между ними, поэтому email попадает и в массив, который станет текущим
+        ActiveBits target = active;
+        setBits(target.current, email);
+        if (target.rebuilding != null) {
+            setBits(target.rebuilding, email);
+        }
+    }
+
+    /**
+     * Начать пакетную запись: email пакета добавляются через add до фиксации
+     * Пока пакет не завершен, массивы, замененные пересборкой, не отбрасываются
+     * @return номер последней начатой пересборки, передается в endBatch
+     */
+    long beginBatch() {
+        activeBatches.incrementAndGet();
+        return rebuildEpoch.get();
+    }
+
+    /**
+     * Завершить пакетную запись
+     * Если после начала пакета началась пересборка, ее сканирование могло не увидеть записи
+     * пакета: прежние массивы удерживаются до следующей пересборки, которая запрашивается сразу
+     * @param epoch значение, полученное от beginBatch
+     * @param committed зафиксирована ли транзакция пакета
+     */
+    void endBatch(long epoch, boolean committed) {
+        try {
+            if (committed) {
+                long current = rebuildEpoch.get();
+                if (current != epoch) {
+                    pinnedThroughEpoch.accumulateAndGet(current, Math::max);
+                    requestRebuild();
+                }
+            }
+        } finally {
+            activeBatches.decrementAndGet();
+        }
+    }
+
+    /**
+     * Проверить, может ли email быть занят
+     * @param email email адрес
+     * @return false если email точно не занят, true если он возможно занят (нужна проверка в базе)
+     */
+    boolean mightContain(String email) {
+        if (!ready || email == null) {
+            return true;
+        }
+        if (containsBits(active.current, email) || retiredContains(email)) {
+            possiblePositives.increment();
+            return true;
+        }
+        definiteNegatives.increment();
+        return false;
+    }
+
+    /**
+     * Проверить email по замененным массивам, которые еще учитываются
+     * @param email email адрес
+     * @return true если email возможно добавлялся в один из них
+     */
+    private boolean retiredContains(String email) {
+        Retired current = retired;
+        if (!current.isActive()) {
+            return false;
+        }
+        for (AtomicLongArray array : current.arrays) {
+            if (containsBits(array, email)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Учесть ложное срабатывание: фильтр ответил "возможно", а база - "нет"
+     */
+    void recordFalsePositive() {
+        if (ready) {
+            falsePositives.increment();
+        }
+    }
+
+    /**
+     * Пересобрать фильтр: заполнить новый битовый массив сканированием и атомарно заменить им текущий
+     * Email, добавленные во время сканирования, записываются и в текущий, и в новый массив.
+     * Замененный массив учитывается еще минуту, а пока идет пакетная запись или до пересборки,
+     * запрошенной завершенным пакетом, - без ограничения времени.
+     * Первая успешная пересборка завершает начальную загрузку
+     * @param scan сканирование всех email: передает каждый адрес получателю и возвращает их количество
+     * @return количество загруженных адресов
+     */
+    synchronized long rebuild(ToLongFunction<Consumer<String>> scan) {
+        AtomicLongArray fresh = newBits();
+        AtomicLongArray previous = active.current;
+        active = new ActiveBits(previous, fresh);
+        // Номер увеличивается после публикации нового массива: пакет, увидевший этот номер
+        // в beginBatch, уже пишет email и в новый массив
+        long epoch = rebuildEpoch.incrementAndGet();
+        long loaded;
+        try {
+            loaded = scan.applyAsLong(email -> {
+                if (email != null) {
+                    setBits(fresh, email);
+                }
+            });
+        } catch (RuntimeException e) {
+            active = new ActiveBits(previous, null);
+            throw e;
+        }
+        // Прежний массив сначала становится дополнительным и только затем заменяется,
+        // поэтому параллельная проверка всегда видит хотя бы один из них
+        if (activeBatches.get() > 0 || epoch <= pinnedThroughEpoch.get()) {
+            retired = retired.pin(previous);
+        } else {
+            retired = Retired.grace(previous, System.nanoTime() + RETIRED_GRACE_NANOS);
+        }
+        active = new ActiveBits(fresh, null);
+        ready = true;
+        return loaded;
+    }
+
+    /**
+     * Запустить периодическую пересборку фильтра (повторные вызовы ничего не делают)
+     * @param scan сканирование всех email
+     */
+    synchronized void scheduleRebuilds(ToLongFunction<Consumer<String>> scan) {
+        if (scheduler != null) {
+            return;
+        }
+        this.scan = scan;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "email-filter-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMs = rebuildInterval.toMillis();
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                long loaded = rebuild(scan);
+                logger.info("Фильтр email пересобран, адресов: {}", loaded);
+            } catch (Exception e) {
+                logger.warn("Ошибка при пересборке фильтра email: {}", e.getMessage());
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        logger.info("Пересборка фильтра email каждые {} мс", intervalMs);
+    }
+
+    /**
+     * Запросить внеочередную пересборку в потоке планировщика
+     * Без запущенной периодической пересборки запрос выполнит следующая плановая
+     */
+    private void requestRebuild() {
+        // Без синхронизации: идущая пересборка удерживает монитор фильтра на время сканирования
+        ScheduledExecutorService current = scheduler;
+        ToLongFunction<Consumer<String>> currentScan = scan;
+        if (current == null || currentScan == null) {
+            return;
+        }
+        try {
+            current.execute(() -> {
+                try {
+                    long loaded = rebuild(currentScan);
+                    logger.info("Фильтр email пересобран после пакетной записи, адресов: {}", loaded);
+                } catch (Exception e) {
+                    logger.warn("Ошибка при пересборке фильтра email: {}", e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("Пересборка фильтра email остановлена, запрос не выполнен");
+        }
+    }
+
+    /**
+     * Остановить периодическую пересборку
+     */
+    synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Загружены ли в фильтр все существующие email адреса
+     * @return true если фильтр отвечает на запросы
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Получить количество запросов, на которые фильтр ответил "точно нет"
+     * @return количество точных отрицательных ответов
+     */
+    public long getDefiniteNegativeCount() {
+        return definiteNegatives.sum();
+    }
+
+    /**
+     * Получить количество запросов, переданных в базу данных как "возможно есть"
+     * @return количество положительных ответов
+     */
+    public long getPossiblePositiveCount() {
+        return possiblePositives.sum();
+    }
+
+    /**
+     * Получить количество положительных ответов, не подтвердившихся в базе
+     * @return количество ложных срабатываний
+     */
+    public long getFalsePositiveCount() {
+        return falsePositives.sum();
+    }
+
+    /**
+     * Получить наблюдаемую долю ложных срабатываний среди запросов отсутствующих email
+     * @return доля от 0 до 1 (0 если таких запросов не было)
+     */
+    public double getFalsePositiveRate() {
+        long falsePositive = falsePositives.sum();
+        long negatives = falsePositive + definiteNegatives.sum();
+        return negatives == 0 ? 0 : falsePositive / (double) negatives;
+    }
+
+    /**
+     * Оценить долю ложных срабатываний по заполненности битового массива: (доля единиц)^k
+     * @return ожидаемая доля ложных срабатываний
+     */
+    public double getExpectedFalsePositiveRate() {
+        AtomicLongArray current = active.current;
+        long setBits = 0;
+        for (int i = 0; i < current.length(); i++) {
+            setBits += Long.bitCount(current.get(i));
+        }
+        return Math.pow(setBits / (double) bitCount, hashCount);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("EmailBloomFilter{ready=%s, bits=%d, hashes=%d, negatives=%d, positives=%d, " +
+                             "falsePositives=%d, falsePositiveRate=%.4f, expectedFalsePositiveRate=%.4f}",
+                             ready, bitCount, hashCount, getDefiniteNegativeCount(), getPossiblePositiveCount(),
+                             getFalsePositiveCount(), getFalsePositiveRate(), getExpectedFalsePositiveRate());
+    }
+
+    /**
+     * Создать пустой битовый массив фильтра
+     * @return массив из bitCount битов
+     */
+    private AtomicLongArray newBits() {
+        return new AtomicLongArray((int) (bitCount / 64));
+    }
+
+    /**
+     * Установить биты email в битовом массиве
+     * @param target битовый массив
+     * @param email email адрес
+     */
+    private void setBits(AtomicLongArray target, String email) {
+        long h1 = hash(email);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current;
+            do {
+                current = target.get(word);
+                if ((current & mask) != 0) {
+                    break;
+                }
+            } while (!target.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    /**
+     * Проверить, установлены ли все биты email в битовом массиве
+     * @param target битовый массив
+     * @param email email адрес
+     * @return true если email возможно добавлялся в массив
+     */
+    private boolean containsBits(AtomicLongArray target, String email) {
+        long h1 = hash(email);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((target.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 64-битный хеш строки (FNV-1a с финальным перемешиванием)
+     * @param value строка
+     * @return хеш
+     */
+    private static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * Финальное перемешивание битов (fmix64 из MurmurHash3)
+     * @param h значение
+     * @return перемешанное значение
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Текущий массив и массив идущей пересборки (null вне пересборки)
+     */
+    private static final class ActiveBits {
+        final AtomicLongArray current;
+        final AtomicLongArray rebuilding;
+
+        ActiveBits(AtomicLongArray current, AtomicLongArray rebuilding) {
+            this.current = current;
+            this.rebuilding = rebuilding;
+        }
+    }
+
+    /**
+     * Замененные массивы: удерживаемые без ограничения времени или до момента until (System.nanoTime)
+     */
+    private static final class Retired {
+        static final Retired NONE = new Retired(Collections.emptyList(), false, 0);
+
+        final List<AtomicLongArray> arrays;
+        final boolean pinned;
+        final long until;
+
+        Retired(List<AtomicLongArray> arrays, boolean pinned, long until) {
+            this.arrays = arrays;
+            this.pinned = pinned;
+            this.until = until;
+        }
+
+        /**
+         * Учитываются ли массивы при проверке
+         * @return true если массивы удерживаются или их время еще не истекло
+         */
+        boolean isActive() {
+            return pinned || System.nanoTime() - until < 0;
+        }
+
+        /**
+         * Удержать еще один замененный массив вместе с учитываемыми сейчас
+         * @param previous замененный массив
+         * @return новые удерживаемые массивы
+         */
+        Retired pin(AtomicLongArray previous) {
+            List<AtomicLongArray> kept = new ArrayList<>(isActive() ? arrays : Collections.emptyList());
+            kept.add(previous);
+            return new Retired(kept, true, 0);
+        }
+
+        /**
+         * Учитывать только один замененный массив до указанного момента
+         * @param previous замененный массив
+         * @param until момент (System.nanoTime), до которого массив учитывается
+         * @return новые замененные массивы
+         */
+        static Retired grace(AtomicLongArray previous, long until) {
+            return new Retired(Collections.singletonList(previous), false, until);
+        }
+    }
+}
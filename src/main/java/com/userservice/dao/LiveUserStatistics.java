@@ -0,0 +1,377 @@
+package com.userservice.dao;
+
+import com.userservice.util.EnvironmentSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Живая статистика пользователей в памяти приложения
+ * Счетчики (общее количество, количество с возрастом, сумма возрастов, гистограмма возрастов
+ * по десятилетиям) заполняются из базы один раз и затем изменяются после фиксации каждой
+ * записи через DAO. Каждое значение - результат последней сверки плюс изменения после ее
+ * начала в счетчиках LongAdder, поэтому одновременные записи не конкурируют, а чтение
+ * статистики не обращается к базе. Точечные изменения возраста учитываются точно: запрос
+ * возвращает прежний и новый возраст. Если затронутые записи заранее неизвестны (операции
+ * по фильтру, массовые операции), статистика помечается устаревшей и вскоре сверяется с базой; кроме того, сверка выполняется периодически
+ * и исправляет расхождение, накопленное из-за записей в обход приложения
+ */
+public final class LiveUserStatistics {
+
+    // Логгер для записи информации о сверке статистики
+    private static final Logger logger = LoggerFactory.getLogger(LiveUserStatistics.class);
+
+    // Ширина интервала гистограммы возрастов, лет
+    public static final int BUCKET_WIDTH = 10;
+
+    // Количество интервалов гистограммы: последний интервал включает все возрасты от 150 лет
+    public static final int BUCKET_COUNT = 16;
+
+    // Переменная окружения с периодом сверки в миллисекундах
+    private static final String RECONCILE_INTERVAL_ENV = "USER_STATS_RECONCILE_MS";
+
+    // Период сверки по умолчанию
+    private static final Duration DEFAULT_RECONCILE_INTERVAL = Duration.ofMinutes(5);
+
+    // Задержка внеочередной сверки после изменения с неизвестным возрастом
+    private static final long DIRTY_RECONCILE_DELAY_MS = 1_000;
+
+    // Индексы значений в массиве, возвращаемом загрузкой из базы
+    static final int TOTAL = 0;
+    static final int WITH_AGE = 1;
+    static final int SUM_OF_AGES = 2;
+    static final int FIRST_BUCKET = 3;
+
+    // Общий экземпляр статистики для всех DAO
+    private static final LiveUserStatistics SHARED = new LiveUserStatistics(reconcileIntervalFromEnvironment());
+
+    // Результат последней сверки и изменения после ее начала (null до первого заполнения;
+    // до этого изменения не учитываются)
+    private volatile Counters counters;
+
+    // Период плановой сверки
+    private final Duration reconcileInterval;
+
+    // Запланирована ли внеочередная сверка
+    private final AtomicBoolean reconcileScheduled = new AtomicBoolean();
+
+    // Загрузка точных значений из базы в формате [TOTAL, WITH_AGE, SUM_OF_AGES, интервалы...]
+    private Supplier<long[]> loader;
+
+    // Планировщик сверки; изменяется под монитором, читается без него, так как сверка
+    // удерживает монитор на время запроса, а пишущие потоки не должны ее ждать
+    private volatile ScheduledExecutorService scheduler;
+
+    /**
+     * Конструктор статистики
+     * @param reconcileInterval период плановой сверки с базой
+     */
+    private LiveUserStatistics(Duration reconcileInterval) {
+        this.reconcileInterval = reconcileInterval;
+    }
+
+    /**
+     * Получить общий экземпляр статистики
+     * @return статистика, обновляемая UserDAO и BulkUserDAO
+     */
+    static LiveUserStatistics shared() {
+        return SHARED;
+    }
+
+    /**
+     * Получить период сверки из переменной окружения USER_STATS_RECONCILE_MS
+     * @return значение переменной или 5 минут, если переменная не задана или некорректна
+     */
+    private static Duration reconcileIntervalFromEnvironment() {
+        return EnvironmentSettings.getMillis(RECONCILE_INTERVAL_ENV, DEFAULT_RECONCILE_INTERVAL, 1);
+    }
+
+    /**
+     * Номер интервала гистограммы для возраста
+     * @param age возраст
+     * @return номер интервала от 0 до BUCKET_COUNT - 1
+     */
+    static int bucketOf(int age) {
+        return Math.max(0, Math.min(age / BUCKET_WIDTH, BUCKET_COUNT - 1));
+    }
+
+    /**
+     * Заполнить счетчики из базы и запустить плановую сверку (повторные вызовы ничего не делают)
+     * @param loader загрузка точных значений из базы
+     */
+    synchronized void start(Supplier<long[]> loader) {
+        if (scheduler != null) {
+            return;
+        }
+        this.loader = loader;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "user-stats-reconcile");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Первое заполнение выполняется сразу в вызывающем потоке
+        reconcile();
+        long intervalMs = reconcileInterval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::reconcileQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        logger.info("Живая статистика пользователей заполнена, сверка каждые {} мс", intervalMs);
+    }
+
+    /**
+     * Остановить плановую сверку
+     */
+    synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+            counters = null;
+        }
+    }
+
+    /**
+     * Учесть созданного пользователя
+     * @param age возраст или null
+     */
+    void recordCreated(Integer age) {
+        Counters current = counters;
+        if (current == null) {
+            return;
+        }
+        current.total.increment();
+        if (age != null) {
+            current.withAge.increment();
+            current.sumOfAges.add(age);
+            current.buckets[bucketOf(age)].increment();
+        }
+    }
+
+    /**
+     * Учесть пакет созданных пользователей одним изменением каждого счетчика
+     * @param count количество созданных пользователей
+     * @param withAge количество созданных пользователей с возрастом
+     * @param sumOfAges сумма их возрастов
+     * @param ageBuckets количество созданных пользователей в каждом интервале гистограммы
+     */
+    void recordCreated(long count, long withAge, long sumOfAges, long[] ageBuckets) {
+        Counters current = counters;
+        if (current == null) {
+            return;
+        }
+        current.total.add(count);
+        current.withAge.add(withAge);
+        current.sumOfAges.add(sumOfAges);
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (ageBuckets[i] != 0) {
+                current.buckets[i].add(ageBuckets[i]);
+            }
+        }
+    }
+
+    /**
+     * Учесть удаленного пользователя
+     * @param age возраст удаленного пользователя или null
+     */
+    void recordDeleted(Integer age) {
+        Counters current = counters;
+        if (current == null) {
+            return;
+        }
+        current.total.decrement();
+        if (age != null) {
+            current.withAge.decrement();
+            current.sumOfAges.add(-age);
+            current.buckets[bucketOf(age)].decrement();
+        }
+    }
+
+    /**
+     * Учесть изменение возраста существующего пользователя
+     * @param oldAge возраст до изменения или null
+     * @param newAge возраст после изменения или null
+     */
+    void recordAgeChanged(Integer oldAge, Integer newAge) {
+        Counters current = counters;
+        if (current == null || Objects.equals(oldAge, newAge)) {
+            return;
+        }
+        if (oldAge != null) {
+            current.withAge.decrement();
+            current.sumOfAges.add(-oldAge);
+            current.buckets[bucketOf(oldAge)].decrement();
+        }
+        if (newAge != null) {
+            current.withAge.increment();
+            current.sumOfAges.add(newAge);
+            current.buckets[bucketOf(newAge)].increment();
+        }
+    }
+
+    /**
+     * Отметить изменение, влияние которого на статистику неизвестно
+     * Внеочередная сверка выполняется один раз на группу таких изменений
+     */
+    void markDirty() {
+        ScheduledExecutorService current = scheduler;
+        if (current != null && reconcileScheduled.compareAndSet(false, true)) {
+            current.schedule(this::reconcileQuietly, DIRTY_RECONCILE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Сверить счетчики с базой
+     * Перед запросом начинаются новые счетчики изменений. Поток, успевший учесть изменение
+     * в прежних счетчиках, зафиксировал транзакцию до начала запроса, и запрос ее уже видит,
+     * поэтому прежние счетчики отбрасываются, а изменения из новых прибавляются к результату
+     * запроса. Дважды может быть учтена только транзакция, зафиксированная между заменой
+     * счетчиков и началом запроса; такое расхождение исправляет следующая сверка
+     */
+    synchronized void reconcile() {
+        reconcileScheduled.set(false);
+        Counters previous = counters;
+        long[] before = previous != null ? previous.values() : new long[FIRST_BUCKET + BUCKET_COUNT];
+
+        // Во время запроса читатели видят прежние значения вместе с новыми изменениями
+        Counters during = new Counters(before);
+        counters = during;
+        long[] actual;
+        try {
+            actual = loader.get();
+        } catch (RuntimeException e) {
+            if (previous == null) {
+                // Без первого заполнения статистика остается пустой, изменения не учитываются
+                counters = null;
+            }
+            throw e;
+        }
+        during.base = actual;
+
+        if (previous != null && actual[TOTAL] != before[TOTAL]) {
+            logger.info("Сверка статистики исправила количество пользователей: {} -> {}", before[TOTAL], actual[TOTAL]);
+        }
+    }
+
+    /**
+     * Получить общее количество пользователей
+     * @return количество пользователей
+     */
+    public long getTotalUsers() {
+        Counters current = counters;
+        return current != null ? current.base[TOTAL] + current.total.sum() : 0;
+    }
+
+    /**
+     * Получить количество пользователей с указанным возрастом
+     * @return количество пользователей с возрастом
+     */
+    public long getUsersWithAge() {
+        Counters current = counters;
+        return current != null ? current.base[WITH_AGE] + current.withAge.sum() : 0;
+    }
+
+    /**
+     * Получить количество пользователей без указанного возраста
+     * @return количество пользователей без возраста
+     */
+    public long getUsersWithoutAge() {
+        return getTotalUsers() - getUsersWithAge();
+    }
+
+    /**
+     * Получить сумму возрастов пользователей
+     * @return сумма возрастов
+     */
+    public long getSumOfAges() {
+        Counters current = counters;
+        return current != null ? current.base[SUM_OF_AGES] + current.sumOfAges.sum() : 0;
+    }
+
+    /**
+     * Получить средний возраст
+     * @return средний возраст или null, если возраст не указан ни у кого
+     */
+    public Double getAverageAge() {
+        Counters current = counters;
+        if (current == null) {
+            return null;
+        }
+        long[] values = current.values();
+        return values[WITH_AGE] > 0 ? values[SUM_OF_AGES] / (double) values[WITH_AGE] : null;
+    }
+
+    /**
+     * Получить гистограмму возрастов
+     * Интервал i содержит возрасты от i * BUCKET_WIDTH до (i + 1) * BUCKET_WIDTH - 1,
+     * последний интервал - все возрасты от (BUCKET_COUNT - 1) * BUCKET_WIDTH
+     * @return количество пользователей в каждом интервале
+     */
+    public long[] getAgeHistogram() {
+        long[] counts = new long[BUCKET_COUNT];
+        Counters current = counters;
+        if (current != null) {
+            System.arraycopy(current.values(), FIRST_BUCKET, counts, 0, BUCKET_COUNT);
+        }
+        return counts;
+    }
+
+    @Override
+    public String toString() {
+        return "LiveUserStatistics{" +
+                "totalUsers=" + getTotalUsers() +
+                ", usersWithAge=" + getUsersWithAge() +
+                ", averageAge=" + getAverageAge() +
+                '}';
+    }
+
+    /**
+     * Выполнить сверку, не прерывая планировщик при ошибке
+     */
+    private void reconcileQuietly() {
+        try {
+            reconcile();
+        } catch (Exception e) {
+            logger.warn("Ошибка при сверке статистики пользователей: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Результат сверки и изменения, учтенные после ее начала
+     * Результат заменяется по окончании запроса сверки, счетчики изменений при этом сохраняются
+     */
+    private static final class Counters {
+        volatile long[] base;
+        final LongAdder total = new LongAdder();
+        final LongAdder withAge = new LongAdder();
+        final LongAdder sumOfAges = new LongAdder();
+        final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+
+        Counters(long[] base) {
+            this.base = base;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Текущие значения в формате загрузки из базы
+         * @return результат сверки плюс изменения
+         */
+        long[] values() {
+            long[] values = base.clone();
+            values[TOTAL] += total.sum();
+            values[WITH_AGE] += withAge.sum();
+            values[SUM_OF_AGES] += sumOfAges.sum();
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                values[FIRST_BUCKET + i] += buckets[i].sum();
+            }
+            return values;
+        }
+    }
+}
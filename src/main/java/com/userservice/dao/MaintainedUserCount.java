@@ -0,0 +1,267 @@
+package com.userservice.dao;
+
+import com.userservice.util.EnvironmentSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Количество пользователей, поддерживаемое в памяти приложения
+ * Значение складывается из результата последнего COUNT(*) и изменений, зафиксированных
+ * через DAO после него (созданные и удаленные пользователи), поэтому чтение не обращается
+ * к базе. Сверка с базой нужна только для записей в обход приложения: фоновая сверка
+ * выполняется с интервалом в половину границы устарелости, пока значение читают, и
+ * останавливается, если значение не читали дольше этой границы. Если значение старше
+ * границы (например, после простоя), его пересчитывает при чтении только один вызывающий
+ * поток, остальные дожидаются результата
+ */
+final class MaintainedUserCount {
+
+    // Логгер для записи информации о пересчете
+    private static final Logger logger = LoggerFactory.getLogger(MaintainedUserCount.class);
+
+    // Переменная окружения с границей устарелости в миллисекундах
+    private static final String MAX_STALENESS_ENV = "USER_COUNT_MAX_STALENESS_MS";
+
+    // Граница устарелости по умолчанию
+    private static final Duration DEFAULT_MAX_STALENESS = Duration.ofMinutes(5);
+
+    // Общий экземпляр для всех DAO
+    private static final MaintainedUserCount SHARED = new MaintainedUserCount(defaultMaxStaleness());
+
+    // Граница устарелости в наносекундах
+    private final long maxStalenessNanos;
+
+    // Точный подсчет зафиксированных пользователей в базе (задается первым DAO); выполняется
+    // в собственной сессии, так как значение может пересчитываться внутри единицы работы
+    private volatile LongSupplier exactCount;
+
+    // Результат последнего подсчета и изменения, зафиксированные после его начала
+    private volatile State state;
+
+    // Время последнего чтения (System.nanoTime)
+    private volatile long lastReadNanos;
+
+    // Блокировка пересчета: одновременно выполняется только один COUNT(*)
+    private final Object reconcileLock = new Object();
+
+    // Планировщик фоновой сверки, работает только пока значение читают
+    private volatile ScheduledExecutorService scheduler;
+
+    /**
+     * Конструктор
+     * @param maxStaleness граница устарелости значения относительно записей в обход приложения
+     */
+    MaintainedUserCount(Duration maxStaleness) {
+        if (maxStaleness.isZero() || maxStaleness.isNegative()) {
+            throw new IllegalArgumentException("Граница устарелости должна быть положительной: " + maxStaleness);
+        }
+        this.maxStalenessNanos = maxStaleness.toNanos();
+    }
+
+    /**
+     * Получить общий экземпляр
+     * @return количество пользователей, обновляемое UserDAO и BulkUserDAO
+     */
+    static MaintainedUserCount shared() {
+        return SHARED;
+    }
+
+    /**
+     * Получить границу устарелости из переменной окружения USER_COUNT_MAX_STALENESS_MS
+     * @return значение переменной или 5 минут, если переменная не задана или некорректна
+     */
+    static Duration defaultMaxStaleness() {
+        return EnvironmentSettings.getMillis(MAX_STALENESS_ENV, DEFAULT_MAX_STALENESS, 1);
+    }
+
+    /**
+     * Задать точный подсчет количества пользователей, если он еще не задан
+     * Подсчет не должен видеть незафиксированные изменения вызывающего потока: они будут
+     * учтены еще раз после фиксации
+     * @param exactCount точный подсчет зафиксированных пользователей
+     */
+    void attach(LongSupplier exactCount) {
+        if (this.exactCount == null) {
+            this.exactCount = exactCount;
+        }
+    }
+
+    /**
+     * Учесть зафиксированное создание пользователей
+     * @param count количество созданных пользователей
+     */
+    void recordCreated(long count) {
+        State current = state;
+        if (current != null) {
+            current.changes.add(count);
+        }
+    }
+
+    /**
+     * Учесть зафиксированное удаление пользователей
+     * @param count количество удаленных пользователей
+     */
+    void recordDeleted(long count) {
+        State current = state;
+        if (current != null) {
+            current.changes.add(-count);
+        }
+    }
+
+    /**
+     * Получить количество пользователей
+     * Изменения через DAO учитываются сразу, записи в обход приложения - не позже границы устарелости
+     * @return количество пользователей
+     */
+    long get() {
+        lastReadNanos = System.nanoTime();
+        ensureStarted();
+        State current = state;
+        if (current == null || isStale(current)) {
+            current = reconcileIfStale();
+        }
+        return current.value();
+    }
+
+    /**
+     * Остановить фоновую сверку
+     */
+    synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Пересчитать значение, если его еще не пересчитал другой поток, пока этот ждал блокировку
+     * @return актуальное состояние
+     */
+    private State reconcileIfStale() {
+        synchronized (reconcileLock) {
+            State current = state;
+            if (current != null && !isStale(current)) {
+                return current;
+            }
+            logger.info("Поддерживаемое количество пользователей устарело, пересчитываем");
+            return reconcile();
+        }
+    }
+
+    /**
+     * Сверить значение с базой
+     * Перед запросом начинается новый накопитель изменений. Поток, успевший записать изменение
+     * в прежний накопитель, зафиксировал транзакцию до начала запроса, и запрос ее уже видит,
+     * поэтому прежний накопитель отбрасывается; изменения из нового добавляются к результату.
+     * Дважды может быть учтена только транзакция, зафиксированная между заменой накопителя
+     * и началом запроса; такое расхождение исправляет следующая сверка
+     * @return новое состояние
+     */
+    private State reconcile() {
+        synchronized (reconcileLock) {
+            State previous = state;
+            long startedAt = System.nanoTime();
+            LongAdder changes = new LongAdder();
+
+            // Во время запроса читатели видят прежнее значение вместе с новыми изменениями.
+            // До первого подсчета значение считается устаревшим, и читатели ждут результата
+            long interim = previous != null ? previous.value() : 0;
+            long interimAt = previous != null ? previous.reconciledAtNanos : startedAt - maxStalenessNanos - 1;
+            state = new State(interim, interimAt, changes);
+
+            long actual = exactCount.getAsLong();
+            if (previous != null && actual != interim) {
+                logger.info("Сверка исправила количество пользователей: {} -> {}", interim, actual);
+            }
+            State reconciled = new State(actual, startedAt, changes);
+            state = reconciled;
+            return reconciled;
+        }
+    }
+
+    /**
+     * Проверить, старше ли последняя сверка границы устарелости
+     * @param current состояние
+     * @return true если значение нужно пересчитать
+     */
+    private boolean isStale(State current) {
+        return System.nanoTime() - current.reconciledAtNanos > maxStalenessNanos;
+    }
+
+    /**
+     * Запустить фоновую сверку, если она не запущена
+     */
+    private void ensureStarted() {
+        if (scheduler != null) {
+            return;
+        }
+        synchronized (this) {
+            if (scheduler == null) {
+                scheduler = newScheduler();
+            }
+        }
+    }
+
+    /**
+     * Создать планировщик фоновой сверки
+     * @return запущенный планировщик
+     */
+    private ScheduledExecutorService newScheduler() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "user-count-reconcile");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalNanos = Math.max(1, maxStalenessNanos / 2);
+        scheduler.scheduleWithFixedDelay(this::reconcileWhileRead, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        logger.info("Запущена фоновая сверка количества пользователей каждые {} мс",
+                    TimeUnit.NANOSECONDS.toMillis(intervalNanos));
+        return scheduler;
+    }
+
+    /**
+     * Выполнить плановую сверку или остановить планировщик, если значение давно не читали
+     * Изменения через DAO продолжают учитываться и без сверки
+     */
+    private void reconcileWhileRead() {
+        synchronized (this) {
+            if (System.nanoTime() - lastReadNanos > maxStalenessNanos) {
+                logger.info("Количество пользователей не читали дольше границы устарелости, фоновая сверка остановлена");
+                shutdown();
+                return;
+            }
+        }
+        try {
+            reconcile();
+        } catch (Exception e) {
+            // Ошибка не останавливает сверку: устаревшее значение пересчитает следующее чтение
+            logger.warn("Ошибка при фоновой сверке количества пользователей: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Результат подсчета, время его начала и изменения, зафиксированные после начала
+     */
+    private static final class State {
+        final long counted;
+        final long reconciledAtNanos;
+        final LongAdder changes;
+
+        State(long counted, long reconciledAtNanos, LongAdder changes) {
+            this.counted = counted;
+            this.reconciledAtNanos = reconciledAtNanos;
+            this.changes = changes;
+        }
+
+        long value() {
+            return counted + changes.sum();
+        }
+    }
+}
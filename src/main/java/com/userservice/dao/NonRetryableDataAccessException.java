@@ -0,0 +1,27 @@
+package com.userservice.dao;
+
+/**
+ * Постоянная ошибка доступа к данным: нарушение ограничений, ошибка в запросе или в данных
+ * Повтор операции не изменит результат
+ */
+public class NonRetryableDataAccessException extends DataAccessException {
+
+    /**
+     * Конструктор исключения
+     * @param message описание ошибки
+     * @param cause исходное исключение
+     * @param sqlState SQLState исходной ошибки или null
+     */
+    public NonRetryableDataAccessException(String message, Throwable cause, String sqlState) {
+        super(message, cause, sqlState);
+    }
+
+    /**
+     * Постоянную ошибку повторять бессмысленно
+     * @return всегда false
+     */
+    @Override
+    public boolean isRetryable() {
+        return false;
+    }
+}
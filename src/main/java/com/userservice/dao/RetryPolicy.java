@@ -0,0 +1,159 @@
+package com.userservice.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Политика повторов идемпотентных операций при временных сбоях базы данных
+ * Между попытками выдерживается пауза по экспоненте со случайным разбросом (full jitter),
+ * чтобы одновременно упавшие запросы не повторялись синхронно. Общий бюджет повторов
+ * ограничивает их долю от всех вызовов: при длительной деградации базы повторы
+ * прекращаются и не умножают нагрузку
+ */
+public class RetryPolicy {
+
+    // Логгер для записи информации о повторах
+    private static final Logger logger = LoggerFactory.getLogger(RetryPolicy.class);
+
+    // Стоимость одного повтора в единицах бюджета
+    private static final long RETRY_COST = 1000;
+
+    // Максимальное количество попыток (включая первую)
+    private final int maxAttempts;
+
+    // Базовая пауза перед первым повтором, мс
+    private final long baseDelayMillis;
+
+    // Максимальная пауза между попытками, мс
+    private final long maxDelayMillis;
+
+    // Пополнение бюджета за каждый вызов (RETRY_COST * доля повторов)
+    private final long budgetDepositPerCall;
+
+    // Максимальный запас бюджета
+    private final long maxBudget;
+
+    // Текущий запас бюджета повторов
+    private final AtomicLong budget;
+
+    /**
+     * Конструктор политики повторов
+     * @param maxAttempts максимальное количество попыток, включая первую (1 - без повторов)
+     * @param baseDelayMillis базовая пауза перед первым повтором, мс
+     * @param maxDelayMillis максимальная пауза между попытками, мс
+     * @param retryRatio допустимая доля повторов от общего числа вызовов (например, 0.1)
+     * @param maxBurstRetries запас повторов, доступных сразу (на случай кратковременного всплеска)
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis,
+                       double retryRatio, int maxBurstRetries) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Количество попыток должно быть не меньше 1: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.budgetDepositPerCall = Math.round(RETRY_COST * retryRatio);
+        this.maxBudget = RETRY_COST * maxBurstRetries;
+        this.budget = new AtomicLong(maxBudget);
+    }
+
+    /**
+     * Политика по умолчанию: до 3 попыток, пауза от 50 до 1000 мс,
+     * не более 10% повторов от вызовов с запасом в 10 повторов
+     * @return новая политика повторов
+     */
+    public static RetryPolicy defaultPolicy() {
+        return new RetryPolicy(3, 50, 1000, 0.1, 10);
+    }
+
+    /**
+     * Политика без повторов: каждая операция выполняется ровно один раз
+     * @return новая политика без повторов
+     */
+    public static RetryPolicy noRetry() {
+        return new RetryPolicy(1, 0, 0, 0, 0);
+    }
+
+    /**
+     * Выполнить операцию, повторяя ее при временных сбоях
+     * Повторяется только ошибка, которую DataAccessException.isTransient считает временной;
+     * остальные ошибки пробрасываются сразу
+     * @param operation название операции для лога
+     * @param action идемпотентная операция
+     * @return результат операции
+     */
+    public <T> T execute(String operation, Supplier<T> action) {
+        depositBudget();
+        
+        int attempt = 1;
+        while (true) {
+            try {
+                return action.get();
+            } catch (RuntimeException e) {
+                if (attempt >= maxAttempts || !DataAccessException.isTransient(e) || !withdrawBudget()) {
+                    throw e;
+                }
+                
+                long delay = nextDelayMillis(attempt);
+                logger.warn("Временный сбой операции {} (попытка {} из {}), повтор через {} мс: {}",
+                            operation, attempt, maxAttempts, delay, e.getMessage());
+                sleep(delay, e);
+                attempt++;
+            }
+        }
+    }
+
+    /**
+     * Вычислить паузу перед следующей попыткой (экспонента со случайным разбросом)
+     * @param attempt номер завершившейся неудачей попытки
+     * @return пауза в миллисекундах от 0 до min(maxDelay, baseDelay * 2^(attempt-1))
+     */
+    private long nextDelayMillis(int attempt) {
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 30));
+        return ceiling > 0 ? ThreadLocalRandom.current().nextLong(ceiling + 1) : 0;
+    }
+
+    /**
+     * Пополнить бюджет повторов за очередной вызов
+     */
+    private void depositBudget() {
+        if (budgetDepositPerCall > 0) {
+            budget.accumulateAndGet(budgetDepositPerCall, (current, deposit) -> Math.min(maxBudget, current + deposit));
+        }
+    }
+
+    /**
+     * Списать стоимость повтора из бюджета
+     * @return true если бюджета хватило и повтор разрешен
+     */
+    private boolean withdrawBudget() {
+        while (true) {
+            long current = budget.get();
+            if (current < RETRY_COST) {
+                logger.warn("Бюджет повторов исчерпан, ошибка возвращается вызывающему коду");
+                return false;
+            }
+            if (budget.compareAndSet(current, current - RETRY_COST)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Выдержать паузу перед повтором
+     * @param delayMillis пауза в миллисекундах
+     * @param failure ошибка, которая будет проброшена при прерывании потока
+     */
+    private static void sleep(long delayMillis, RuntimeException failure) {
+        try {
+            Thread.sleep(delayMillis);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw failure;
+        }
+    }
+}
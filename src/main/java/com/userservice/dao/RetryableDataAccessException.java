@@ -0,0 +1,28 @@
+package com.userservice.dao;
+
+/**
+ * Временный сбой доступа к данным: конфликт сериализации, взаимная блокировка,
+ * потеря соединения или перегрузка сервера
+ * Идемпотентную операцию, завершившуюся этой ошибкой, можно безопасно повторить
+ */
+public class RetryableDataAccessException extends DataAccessException {
+
+    /**
+     * Конструктор исключения
+     * @param message описание ошибки
+     * @param cause исходное исключение
+     * @param sqlState SQLState исходной ошибки или null
+     */
+    public RetryableDataAccessException(String message, Throwable cause, String sqlState) {
+        super(message, cause, sqlState);
+    }
+
+    /**
+     * Временный сбой можно повторить
+     * @return всегда true
+     */
+    @Override
+    public boolean isRetryable() {
+        return true;
+    }
+}
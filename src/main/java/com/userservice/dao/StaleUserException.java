@@ -0,0 +1,31 @@
+package com.userservice.dao;
+
+/**
+ * Исключение оптимистической блокировки: запись пользователя была изменена
+ * другой транзакцией после того, как ее прочитали
+ * Автоматический повтор не поможет: вызывающий код должен перечитать пользователя
+ * и заново применить изменение
+ */
+public class StaleUserException extends NonRetryableDataAccessException {
+
+    // Идентификатор пользователя, запись которого устарела
+    private final Long userId;
+
+    /**
+     * Конструктор исключения
+     * @param userId идентификатор пользователя
+     * @param cause исходное исключение Hibernate
+     */
+    public StaleUserException(Long userId, Throwable cause) {
+        super("Пользователь с ID " + userId + " был изменен или удален другой транзакцией", cause, null);
+        this.userId = userId;
+    }
+
+    /**
+     * Получить ID пользователя, запись которого устарела
+     * @return идентификатор пользователя
+     */
+    public Long getUserId() {
+        return userId;
+    }
+}
@@ -0,0 +1,17 @@
+package com.userservice.dao;
+
+/**
+ * Результат вставки пользователя с обновлением при конфликте по email
+ */
+public enum UpsertResult {
+
+    /**
+     * Пользователя с таким email не было, создана новая запись
+     */
+    INSERTED,
+
+    /**
+     * Пользователь с таким email уже существовал, его данные обновлены
+     */
+    UPDATED
+}
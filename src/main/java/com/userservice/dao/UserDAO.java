@@ -1,117 +1,511 @@
 package com.userservice.dao;
 
+import com.userservice.dto.UserSnapshot;
+import com.userservice.dto.UserStatistics;
+import com.userservice.dto.UserSummary;
 import com.userservice.entity.User;
+import com.userservice.util.CacheRegionMetrics;
 import com.userservice.util.HibernateUtil;
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.StaleStateException;
 import org.hibernate.Transaction;
+import org.hibernate.cache.spi.access.CachedDomainDataAccess;
+import org.hibernate.cache.spi.access.EntityDataAccess;
+import org.hibernate.cache.spi.access.NaturalIdDataAccess;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.query.NativeQuery;
 import org.hibernate.query.Query;
+import org.hibernate.type.LocalDateTimeType;
+import org.hibernate.type.StandardBasicTypes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.persistence.NoResultException;
+import javax.persistence.OptimisticLockException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * DAO (Data Access Object) класс для работы с сущностью User
  * Реализует паттерн DAO для разделения бизнес-логики и логики доступа к данным
  * Содержит все CRUD операции для сущности User
+ * Ошибки базы данных пробрасываются как DataAccessException: RetryableDataAccessException
+ * для временных сбоев и NonRetryableDataAccessException для остальных. Идемпотентные
+ * операции (чтение, удаление, upsert, частичное обновление) при временных сбоях
+ * автоматически повторяются по политике RetryPolicy
+ * Пользователи кэшируются в кэше второго уровня (регион User.CACHE_REGION). Изменения через
+ * сессию Hibernate учитывает в кэше сам. Точечные UPDATE/DELETE выполняются нативными запросами
+ * и, как сессия Hibernate, берут мягкие блокировки READ_WRITE только на измененные записи и
+ * соответствия email -> ID затронутых адресов (прежний email возвращается тем же запросом)
+ * до завершения транзакции; HQL-операции по фильтру затрагивают заранее
+ * неизвестные записи, поэтому Hibernate после них очищает регионы пользователей целиком
  */
 public class UserDAO {
 
     // Логгер для записи информации о операциях с базой данных
     private static final Logger logger = LoggerFactory.getLogger(UserDAO.class);
 
+    // Размер пакета по умолчанию, совпадает с hibernate.jdbc.batch_size
+    public static final int DEFAULT_BATCH_SIZE = 50;
+
+    // Количество строк, которое драйвер получает с сервера за одно обращение к курсору
+    public static final int STREAM_FETCH_SIZE = 500;
+
+    // Максимальный размер одной страницы списка пользователей
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    // HQL-проекция пользователя в UserSummary без загрузки сущности
+    private static final String SUMMARY_SELECT =
+        "SELECT new com.userservice.dto.UserSummary(u.id, u.name, u.email) FROM User u";
+
+    // Сессия единицы работы (inTransaction), открытой в текущем потоке
+    private static final ThreadLocal<Session> UNIT_OF_WORK = new ThreadLocal<>();
+
+    // Ближний кэш пользователей, общий для всех экземпляров DAO
+    private static final UserNearCache NEAR_CACHE = UserNearCache.shared();
+
+    // Фильтр Блума занятых email, общий для всех экземпляров DAO
+    private static final EmailBloomFilter EMAIL_FILTER = EmailBloomFilter.shared();
+
+    // Живая статистика пользователей, общая для всех DAO
+    private static final LiveUserStatistics LIVE_STATISTICS = LiveUserStatistics.shared();
+
+    // Количество пользователей, поддерживаемое по зафиксированным созданиям и удалениям
+    private static final MaintainedUserCount USER_COUNT = MaintainedUserCount.shared();
+
+    // Политика повторов идемпотентных операций
+    private final RetryPolicy retryPolicy;
+
+    // Кэш результатов количества пользователей и первой страницы
+    private final UserResultCache resultCache;
+
+    /**
+     * Конструктор DAO с политикой повторов по умолчанию
+     */
+    public UserDAO() {
+        this(RetryPolicy.defaultPolicy());
+    }
+
+    /**
+     * Конструктор DAO с заданной политикой повторов
+     * Максимальная устарелость кэша результатов берется из переменной окружения
+     * USER_RESULT_CACHE_MAX_STALENESS_MS (по умолчанию 5 секунд)
+     * @param retryPolicy политика повторов идемпотентных операций (RetryPolicy.noRetry() - без повторов)
+     */
+    public UserDAO(RetryPolicy retryPolicy) {
+        this(retryPolicy, UserResultCache.defaultMaxStaleness());
+    }
+
+    /**
+     * Конструктор DAO с заданной политикой повторов и устарелостью кэша результатов
+     * @param retryPolicy политика повторов идемпотентных операций
+     * @param resultCacheMaxStaleness максимальный возраст закэшированного количества пользователей
+     *                                и первой страницы (Duration.ZERO - без кэширования)
+     */
+    public UserDAO(RetryPolicy retryPolicy, Duration resultCacheMaxStaleness) {
+        this.retryPolicy = retryPolicy;
+        this.resultCache = new UserResultCache(resultCacheMaxStaleness);
+        USER_COUNT.attach(this::countCommittedUsers);
+    }
+
+    /**
+     * Остановить фоновые задачи DAO (пересчет количества пользователей, сверка живой статистики,
+     * пересборка фильтра email)
+     * Вызывается при завершении работы приложения
+     */
+    public void shutdown() {
+        USER_COUNT.shutdown();
+        LIVE_STATISTICS.shutdown();
+        EMAIL_FILTER.shutdown();
+    }
+
+    /**
+     * Выполнить несколько операций DAO в одной сессии и одной транзакции (единица работы)
+     * Сессия берется через getCurrentSession() и привязана к потоку
+     * (current_session_context_class=thread), поэтому все вызовы методов DAO внутри work
+     * используют одно соединение из пула. При успешном завершении транзакция фиксируется,
+     * при любой ошибке - откатывается целиком. Вложенный вызов присоединяется к внешней
+     * транзакции. Внутри единицы работы операции не повторяются автоматически: после ошибки
+     * транзакция PostgreSQL прервана, и повторять можно только всю единицу работы целиком.
+     * Не следует ожидать ввода пользователя внутри work: транзакция удерживает соединение
+     * @param work действия с DAO, выполняемые в одной транзакции
+     * @return результат work
+     * @throws DataAccessException если произошла ошибка при выполнении или фиксации
+     */
+    public <T> T inTransaction(Function<UserDAO, T> work) {
+        if (UNIT_OF_WORK.get() != null) {
+            // Вложенная единица работы выполняется в транзакции внешней
+            return work.apply(this);
+        }
+
+        Session session = HibernateUtil.getSessionFactory().getCurrentSession();
+        Transaction transaction = null;
+        try {
+            transaction = session.beginTransaction();
+            UNIT_OF_WORK.set(session);
+
+            T result = work.apply(this);
+
+            // При фиксации сессия текущего потока закрывается и отвязывается автоматически
+            transaction.commit();
+            return result;
+
+        } catch (Exception e) {
+            if (transaction == null && session.isOpen()) {
+                // Транзакция не началась, поэтому сессию потока закрываем и отвязываем вручную
+                session.close();
+            }
+            rollbackQuietly(transaction, "выполнении единицы работы");
+            logger.error("Ошибка при выполнении единицы работы: {}", e.getMessage(), e);
+            throw DataAccessException.translate("Не удалось выполнить транзакцию", e);
+        } finally {
+            UNIT_OF_WORK.remove();
+        }
+    }
+
     /**
      * Создать нового пользователя в базе данных
+     * Не повторяется автоматически: при потере соединения во время фиксации повтор мог бы создать дубликат
      * @param user объект пользователя для сохранения
      * @return сохраненный пользователь с установленным ID
-     * @throws RuntimeException если произошла ошибка при сохранении
+     * @throws DataAccessException если произошла ошибка при сохранении
      */
     public User createUser(User user) {
         logger.info("Создание нового пользователя: {}", user.getEmail());
-        
-        Transaction transaction = null;
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            // Начинаем транзакцию
-            transaction = session.beginTransaction();
-            
-            // Сохраняем пользователя в базе данных
-            session.save(user);
-            
-            // Подтверждаем транзакцию
-            transaction.commit();
-            
+
+        // Email попадает в фильтр до вставки, чтобы фильтр не отвечал "нет" на уже занятый email
+        EMAIL_FILTER.add(user.getEmail());
+
+        try {
+            executeInTransaction("создании пользователя", session -> {
+                // Сохраняем пользователя в базе данных
+                Long id = (Long) session.save(user);
+                invalidateNearCacheAfterCompletion(session, id);
+                addEmailAfterCommit(session, user.getEmail());
+                Integer age = user.getAge();
+                runAfterCommit(session, () -> {
+                    LIVE_STATISTICS.recordCreated(age);
+                    USER_COUNT.recordCreated(1);
+                });
+                return id;
+            });
+
             logger.info("Пользователь успешно создан с ID: {}", user.getId());
             return user;
-            
+
         } catch (Exception e) {
-            // В случае ошибки откатываем транзакцию
-            if (transaction != null) {
-                try {
-                    transaction.rollback();
-                    logger.warn("Транзакция отменена из-за ошибки при создании пользователя");
-                } catch (Exception rollbackEx) {
-                    logger.error("Ошибка при откате транзакции: {}", rollbackEx.getMessage());
+            logger.error("Ошибка при создании пользователя: {}", e.getMessage(), e);
+            throw DataAccessException.translate("Не удалось создать пользователя", e);
+        }
+    }
+
+    /**
+     * Создать пользователя или обновить существующего с тем же email одним запросом
+     * Использует INSERT ... ON CONFLICT (email) DO UPDATE, поэтому не требует предварительной
+     * проверки existsByEmail и не подвержен гонке между проверкой и вставкой.
+     * Потеря соединения во время фиксации не повторяется автоматически: повтор уже
+     * зафиксированной вставки вернул бы UPDATED
+     * @param user пользователь для сохранения; после вызова содержит ID, версию и дату создания записи
+     * @return INSERTED если создана новая запись, UPDATED если обновлена существующая
+     * @throws NonRetryableDataAccessException если соединение потеряно во время фиксации (результат неизвестен)
+     * @throws DataAccessException если произошла ошибка при сохранении
+     */
+    public UpsertResult upsertByEmail(User user) {
+        logger.info("Создание или обновление пользователя по email: {}", user.getEmail());
+        EMAIL_FILTER.add(user.getEmail());
+
+        try {
+            Object[] row = withRetry("upsertByEmail", () ->
+                executeInTransaction("сохранении пользователя по email", true, session -> {
+                    // xmax = 0 только у строки, созданной этим запросом, а не обновленной.
+                    // CTE блокирует существующую запись и читает ее прежний возраст для живой статистики
+                    NativeQuery<?> query = session.createNativeQuery(
+                        "WITH old AS (SELECT age FROM users WHERE email = :email FOR UPDATE) " +
+                        "INSERT INTO users (id, name, email, age, created_at, version) " +
+                        "VALUES (:id, :name, :email, :age, :createdAt, 0) " +
+                        "ON CONFLICT (email) DO UPDATE SET name = EXCLUDED.name, age = EXCLUDED.age, " +
+                        "version = users.version + 1 " +
+                        "RETURNING id, (xmax = 0) AS inserted, EXISTS (SELECT 1 FROM old) AS locked, " +
+                        "(SELECT age FROM old) AS old_age, version, created_at");
+                    query.setParameter("id", nextUserId(session, user), StandardBasicTypes.LONG);
+                    bindInsertParameters(query, user);
+                    lockEmailsUntilCompletion(session, Collections.singletonList(user.getEmail()));
+                    Object[] returned = (Object[]) query.getSingleResult();
+
+                    // INSERT ... RETURNING выполняется как выборка и не сбрасывает кэш второго уровня.
+                    // ID обновленной записи известен только теперь; блокировка до фиксации
+                    // достаточна, чтобы прочитанная раньше версия не попала в кэш
+                    long id = ((Number) returned[0]).longValue();
+                    lockUsersUntilCompletion(session, id);
+                    invalidateNearCacheAfterCompletion(session, id);
+                    addEmailAfterCommit(session, user.getEmail());
+
+                    Integer age = user.getAge();
+                    boolean inserted = Boolean.TRUE.equals(returned[1]);
+                    boolean locked = Boolean.TRUE.equals(returned[2]);
+                    Integer oldAge = returned[3] == null ? null : ((Number) returned[3]).intValue();
+                    runAfterCommit(session, () -> {
+                        if (inserted) {
+                            LIVE_STATISTICS.recordCreated(age);
+                            USER_COUNT.recordCreated(1);
+                        } else if (locked) {
+                            LIVE_STATISTICS.recordAgeChanged(oldAge, age);
+                        } else {
+                            // Запись вставлена другой транзакцией после чтения CTE: прежний возраст неизвестен
+                            LIVE_STATISTICS.markDirty();
+                        }
+                    });
+                    return returned;
+                }));
+
+            // Обновленная запись сохраняет свои версию и дату создания, а не значения объекта
+            user.setId(((Number) row[0]).longValue());
+            user.setVersion(((Number) row[4]).longValue());
+            user.setCreatedAt(((Timestamp) row[5]).toLocalDateTime());
+            UpsertResult result = Boolean.TRUE.equals(row[1]) ? UpsertResult.INSERTED : UpsertResult.UPDATED;
+
+            logger.info("Пользователь с ID {} {}", user.getId(),
+                        result == UpsertResult.INSERTED ? "создан" : "обновлен");
+            return result;
+
+        } catch (Exception e) {
+            logger.error("Ошибка при сохранении пользователя по email: {}", e.getMessage(), e);
+            throw DataAccessException.translate("Не удалось сохранить пользователя", e);
+        }
+    }
+
+    /**
+     * Создать пользователя, если пользователя с таким email еще нет, одним запросом
+     * Использует INSERT ... ON CONFLICT (email) DO NOTHING: одновременные попытки создать
+     * пользователя с одним email не приводят к ошибке уникальности
+     * @param user пользователь для сохранения; при создании получает ID
+     * @return true если пользователь создан, false если email уже занят
+     * @throws DataAccessException если произошла ошибка при сохранении
+     */
+    public boolean createIfAbsent(User user) {
+        logger.info("Создание пользователя, если email свободен: {}", user.getEmail());
+        EMAIL_FILTER.add(user.getEmail());
+
+        try {
+            List<?> ids = executeInTransaction("создании пользователя", session -> {
+                NativeQuery<?> query = session.createNativeQuery(
+                    "INSERT INTO users (id, name, email, age, created_at, version) " +
+                    "VALUES (:id, :name, :email, :age, :createdAt, 0) " +
+                    "ON CONFLICT (email) DO NOTHING " +
+                    "RETURNING id");
+                query.setParameter("id", nextUserId(session, user), StandardBasicTypes.LONG);
+                bindInsertParameters(query, user);
+                List<?> inserted = query.getResultList();
+                if (!inserted.isEmpty()) {
+                    addEmailAfterCommit(session, user.getEmail());
+                    Integer age = user.getAge();
+                    runAfterCommit(session, () -> {
+                        LIVE_STATISTICS.recordCreated(age);
+                        USER_COUNT.recordCreated(1);
+                    });
                 }
+                return inserted;
+            });
+
+            if (ids.isEmpty()) {
+                logger.info("Пользователь с email {} уже существует", user.getEmail());
+                return false;
             }
-            
+
+            user.setId(((Number) ids.get(0)).longValue());
+            user.setVersion(0L);
+            logger.info("Пользователь успешно создан с ID: {}", user.getId());
+            return true;
+
+        } catch (Exception e) {
             logger.error("Ошибка при создании пользователя: {}", e.getMessage(), e);
-            throw new RuntimeException("Не удалось создать пользователя: " + e.getMessage(), e);
+            throw DataAccessException.translate("Не удалось создать пользователя", e);
+        }
+    }
+
+    /**
+     * Создать пользователей пакетами с размером пакета по умолчанию
+     * @param users коллекция пользователей для сохранения
+     * @return количество сохраненных пользователей
+     * @throws DataAccessException если произошла ошибка при сохранении
+     */
+    public int createUsers(Collection<User> users) {
+        return createUsers(users.iterator(), DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Создать пользователей пакетами в одной транзакции
+     * INSERT-запросы отправляются JDBC-пакетами, а каждые batchSize записей сессия
+     * сбрасывается и сохраненные сущности отсоединяются, чтобы кэш первого уровня не рос
+     * вместе с объемом загрузки. Внутри единицы работы остальные сущности сессии не затрагиваются
+     * @param users итератор пользователей для сохранения
+     * @param batchSize количество записей в одном JDBC-пакете
+     * @return количество сохраненных пользователей
+     * @throws DataAccessException если произошла ошибка при сохранении
+     */
+    public int createUsers(Iterator<User> users, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Размер пакета должен быть положительным: " + batchSize);
+        }
+        logger.info("Пакетное создание пользователей, размер пакета: {}", batchSize);
+
+        try {
+            int count = executeInTransaction("пакетном создании пользователей", session -> {
+                // Размер JDBC-пакета и отключение кэша второго уровня только на время загрузки,
+                // так как сессия может принадлежать единице работы
+                Integer previousBatchSize = session.getJdbcBatchSize();
+                CacheMode previousCacheMode = session.getCacheMode();
+                session.setJdbcBatchSize(batchSize);
+                session.setCacheMode(CacheMode.IGNORE);
+                beginEmailBatch(session);
+
+                try {
+                    List<User> batch = new ArrayList<>(batchSize);
+                    // Вклад в живую статистику копится в локальных счетчиках и применяется после фиксации
+                    long withAge = 0;
+                    long sumOfAges = 0;
+                    long[] ageBuckets = new long[LiveUserStatistics.BUCKET_COUNT];
+                    int saved = 0;
+                    while (users.hasNext()) {
+                        User user = users.next();
+                        EMAIL_FILTER.add(user.getEmail());
+                        session.save(user);
+                        batch.add(user);
+                        Integer age = user.getAge();
+                        if (age != null) {
+                            withAge++;
+                            sumOfAges += age;
+                            ageBuckets[LiveUserStatistics.bucketOf(age)]++;
+                        }
+                        saved++;
+
+                        // Отправляем накопленный пакет и освобождаем контекст персистентности
+                        if (batch.size() == batchSize) {
+                            session.flush();
+                            batch.forEach(session::evict);
+                            batch.clear();
+                        }
+                    }
+
+                    // Оставшиеся записи отправляются при фиксации транзакции
+                    int created = saved;
+                    long createdWithAge = withAge;
+                    long createdSumOfAges = sumOfAges;
+                    runAfterCommit(session, () -> {
+                        LIVE_STATISTICS.recordCreated(created, createdWithAge, createdSumOfAges, ageBuckets);
+                        USER_COUNT.recordCreated(created);
+                    });
+                    return saved;
+                } finally {
+                    session.setJdbcBatchSize(previousBatchSize);
+                    session.setCacheMode(previousCacheMode);
+                }
+            });
+
+            logger.info("Пакетно создано пользователей: {}", count);
+            return count;
+
+        } catch (Exception e) {
+            logger.error("Ошибка при пакетном создании пользователей: {}", e.getMessage(), e);
+            throw DataAccessException.translate("Не удалось создать пользователей", e);
         }
     }
 
     /**
      * Найти пользователя по ID
+     * Сначала проверяется ближний кэш приложения, затем кэш второго уровня Hibernate
      * @param id идентификатор пользователя
      * @return Optional с пользователем если найден, пустой Optional если не найден
      */
     public Optional<User> findUserById(Long id) {
         logger.info("Поиск пользователя по ID: {}", id);
-        
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            User user = session.get(User.class, id);
-            
-            if (user != null) {
-                logger.info("Пользователь найден: {}", user.getEmail());
-                return Optional.of(user);
-            } else {
-                logger.info("Пользователь с ID {} не найден", id);
-                return Optional.empty();
+
+        try {
+            Supplier<Optional<User>> loader = () -> withRetry("findUserById", () -> executeReadOnly(session -> {
+                User user = session.get(User.class, id);
+
+                if (user != null) {
+                    logger.info("Пользователь найден: {}", user.getEmail());
+                    return Optional.of(user);
+                } else {
+                    logger.info("Пользователь с ID {} не найден", id);
+                    return Optional.empty();
+                }
+            }));
+
+            if (UNIT_OF_WORK.get() != null) {
+                return loader.get();
             }
-            
+            return NEAR_CACHE.getById(id, () -> loader.get().map(UserSnapshot::of)).map(UserSnapshot::toUser);
+
         } catch (Exception e) {
             logger.error("Ошибка при поиске пользователя по ID {}: {}", id, e.getMessage(), e);
-            throw new RuntimeException("Ошибка при поиске пользователя: " + e.getMessage(), e);
+            throw DataAccessException.translate("Ошибка при поиске пользователя", e);
         }
     }
 
     /**
      * Найти пользователя по email адресу
+     * Сначала проверяется ближний кэш приложения (индекс email -> ID). Email - естественный ключ:
+     * при промахе он разрешается в ID через кэш естественных ключей, а пользователь читается
+     * из кэша сущностей, поэтому повторный поиск по одному email не обращается к базе
      * @param email email адрес пользователя
      * @return Optional с пользователем если найден, пустой Optional если не найден
      */
     public Optional<User> findUserByEmail(String email) {
         logger.info("Поиск пользователя по email: {}", email);
-        
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            // Создаем HQL запрос для поиска по email
-            Query<User> query = session.createQuery(
-                "FROM User u WHERE u.email = :email", User.class);
-            query.setParameter("email", email);
-            
-            try {
-                User user = query.getSingleResult();
-                logger.info("Пользователь с email {} найден", email);
-                return Optional.of(user);
-            } catch (NoResultException e) {
-                logger.info("Пользователь с email {} не найден", email);
-                return Optional.empty();
+
+        if (!EMAIL_FILTER.mightContain(email)) {
+            logger.info("Пользователь с email {} не найден (фильтр email)", email);
+            return Optional.empty();
+        }
+
+        try {
+            Supplier<Optional<User>> loader = () -> withRetry("findUserByEmail", () -> executeReadOnly(session -> {
+                Optional<User> user = session.bySimpleNaturalId(User.class).loadOptional(email);
+                if (!user.isPresent()) {
+                    EMAIL_FILTER.recordFalsePositive();
+                }
+
+                logger.info("Пользователь с email {} {}", email, user.isPresent() ? "найден" : "не найден");
+                return user;
+            }));
+
+            if (UNIT_OF_WORK.get() != null) {
+                return loader.get();
             }
-            
+            return NEAR_CACHE.getByEmail(email, () -> loader.get().map(UserSnapshot::of)).map(UserSnapshot::toUser);
+
         } catch (Exception e) {
             logger.error("Ошибка при поиске пользователя по email {}: {}", email, e.getMessage(), e);
-            throw new RuntimeException("Ошибка при поиске пользователя: " + e.getMessage(), e);
+            throw DataAccessException.translate("Ошибка при поиске пользователя", e);
         }
     }
 
@@ -121,153 +515,1448 @@ public class UserDAO {
      */
     public List<User> findAllUsers() {
         logger.info("Получение списка всех пользователей");
-        
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            // Создаем HQL запрос для получения всех пользователей
-            Query<User> query = session.createQuery("FROM User ORDER BY createdAt DESC", User.class);
-            List<User> users = query.getResultList();
-            
-            logger.info("Найдено {} пользователей", users.size());
-            return users;
-            
+
+        try {
+            return withRetry("findAllUsers", () -> executeReadOnly(session -> {
+                // Создаем HQL запрос для получения всех пользователей
+                Query<User> query = session.createQuery("FROM User ORDER BY createdAt DESC", User.class);
+                List<User> users = query.getResultList();
+
+                logger.info("Найдено {} пользователей", users.size());
+                return users;
+            }));
+
         } catch (Exception e) {
             logger.error("Ошибка при получении списка пользователей: {}", e.getMessage(), e);
-            throw new RuntimeException("Ошибка при получении пользователей: " + e.getMessage(), e);
+            throw DataAccessException.translate("Ошибка при получении пользователей", e);
+        }
+    }
+
+    /**
+     * Получить страницу пользователей (от новых к старым) с поиском по ключу (created_at, id)
+     * Вместо OFFSET следующая страница начинается строго после последней строки предыдущей,
+     * поэтому запрос идет по индексу idx_users_created_at_id и одинаково быстр на любой странице.
+     * Первая страница берется из кэша результатов, пока таблица не изменялась
+     * @param cursor токен продолжения из предыдущей страницы или null для первой страницы
+     * @param limit количество пользователей на странице (от 1 до MAX_PAGE_SIZE)
+     * @return страница пользователей с токеном следующей страницы
+     */
+    public UserPage findUsersPage(String cursor, int limit) {
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Размер страницы должен быть от 1 до " + MAX_PAGE_SIZE + ": " + limit);
+        }
+        logger.info("Получение страницы пользователей, размер: {}", limit);
+
+        // Токен разбираем до обращения к базе: поврежденный токен - ошибка вызывающего кода
+        UserPage.Cursor position = cursor != null ? UserPage.decodeCursor(cursor) : null;
+
+        try {
+            Supplier<UserPage> loader = () -> withRetry("findUsersPage", () -> executeReadOnly(session -> {
+                Query<User> query;
+                if (position == null) {
+                    query = session.createQuery(
+                        "FROM User u ORDER BY u.createdAt DESC, u.id DESC", User.class);
+                } else {
+                    // Сравнение кортежей (created_at, id) < (:createdAt, :id) соответствует порядку индекса
+                    query = session.createQuery(
+                        "FROM User u WHERE (u.createdAt, u.id) < (:createdAt, :id) " +
+                        "ORDER BY u.createdAt DESC, u.id DESC", User.class);
+                    query.setParameter("createdAt", position.createdAt);
+                    query.setParameter("id", position.id);
+                }
+
+                // Запрашиваем на одну строку больше, чтобы узнать, есть ли следующая страница
+                query.setMaxResults(limit + 1);
+                List<User> rows = query.getResultList();
+
+                boolean hasNext = rows.size() > limit;
+                List<User> users = hasNext ? new ArrayList<>(rows.subList(0, limit)) : rows;
+                String nextCursor = hasNext ? UserPage.encodeCursor(users.get(users.size() - 1)) : null;
+
+                logger.info("Получена страница из {} пользователей", users.size());
+                return new UserPage(users, nextCursor);
+            }));
+
+            if (position != null) {
+                return loader.get();
+            }
+            // Выдаем копию, чтобы изменения пользователей вызывающим кодом не попали в кэш
+            return cached("firstPage:" + limit, loader).copy();
+
+        } catch (Exception e) {
+            logger.error("Ошибка при получении страницы пользователей: {}", e.getMessage(), e);
+            throw DataAccessException.translate("Ошибка при получении пользователей", e);
+        }
+    }
+
+    /**
+     * Последовательно обработать всех пользователей, не загружая их в память целиком
+     * Использует серверный курсор (ScrollableResults с fetch size) внутри транзакции только
+     * для чтения: драйвер PostgreSQL получает строки порциями только при выключенном autocommit.
+     * Каждая обработанная сущность сразу исключается из контекста персистентности, поэтому
+     * потребление памяти не зависит от размера таблицы.
+     * Не повторяется автоматически: обработчик мог уже получить часть пользователей
+     * @param consumer обработчик, вызываемый для каждого пользователя (от новых к старым)
+     * @return количество обработанных пользователей
+     */
+    public long streamAllUsers(Consumer<User> consumer) {
+        logger.info("Потоковая обработка всех пользователей");
+
+        try {
+            return executeReadOnlyCursor(session -> {
+                Query<User> query = session.createQuery("FROM User u ORDER BY u.createdAt DESC", User.class);
+                query.setFetchSize(STREAM_FETCH_SIZE);
+                query.setCacheMode(CacheMode.IGNORE);
+
+                long count = 0;
+                try (ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY)) {
+                    while (results.next()) {
+                        User user = (User) results.get(0);
+                        consumer.accept(user);
+
+                        // Отсоединяем сущность, чтобы контекст персистентности не рос
+                        session.evict(user);
+                        count++;
+                    }
+                }
+
+                logger.info("Потоково обработано {} пользователей", count);
+                return count;
+            });
+
+        } catch (Exception e) {
+            logger.error("Ошибка при потоковой обработке пользователей: {}", e.getMessage(), e);
+            throw DataAccessException.translate("Ошибка при получении пользователей", e);
+        }
+    }
+
+    /**
+     * Найти краткие данные пользователя по ID без загрузки сущности
+     * @param id идентификатор пользователя
+     * @return Optional с кратким представлением, пустой Optional если пользователь не найден
+     */
+    public Optional<UserSummary> findUserSummaryById(Long id) {
+        logger.info("Поиск кратких данных пользователя по ID: {}", id);
+
+        try {
+            return withRetry("findUserSummaryById", () -> executeReadOnly(session -> {
+                Query<UserSummary> query = session.createQuery(
+                    SUMMARY_SELECT + " WHERE u.id = :id", UserSummary.class);
+                query.setParameter("id", id);
+
+                return query.uniqueResultOptional();
+            }));
+
+        } catch (Exception e) {
+            logger.error("Ошибка при поиске кратких данных пользователя по ID {}: {}", id, e.getMessage(), e);
+            throw DataAccessException.translate("Ошибка при поиске пользователя", e);
+        }
+    }
+
+    /**
+     * Получить краткие данные всех пользователей (от новых к старым) без загрузки сущностей
+     * @return список кратких представлений пользователей
+     */
+    public List<UserSummary> findAllUserSummaries() {
+        logger.info("Получение кратких данных всех пользователей");
+
+        try {
+            return withRetry("findAllUserSummaries", () -> executeReadOnly(session -> {
+                Query<UserSummary> query = session.createQuery(
+                    SUMMARY_SELECT + " ORDER BY u.createdAt DESC, u.id DESC", UserSummary.class);
+                List<UserSummary> summaries = query.getResultList();
+
+                logger.info("Найдено {} пользователей", summaries.size());
+                return summaries;
+            }));
+
+        } catch (Exception e) {
+            logger.error("Ошибка при получении кратких данных пользователей: {}", e.getMessage(), e);
+            throw DataAccessException.translate("Ошибка при получении пользователей", e);
+        }
+    }
+
+    /**
+     * Последовательно обработать краткие данные всех пользователей серверным курсором
+     * Предназначен для выгрузок: в памяти одновременно находится только порция строк курсора.
+     * Не повторяется автоматически: обработчик мог уже получить часть пользователей
+     * @param consumer обработчик, вызываемый для каждого пользователя (в порядке ID)
+     * @return количество обработанных пользователей
+     */
+    public long streamUserSummaries(Consumer<UserSummary> consumer) {
+        logger.info("Потоковая выгрузка кратких данных пользователей");
+
+        try {
+            return executeReadOnlyCursor(session -> {
+                Query<UserSummary> query = session.createQuery(
+                    SUMMARY_SELECT + " ORDER BY u.id", UserSummary.class);
+                query.setFetchSize(STREAM_FETCH_SIZE);
+
+                long count = 0;
+                try (ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY)) {
+                    while (results.next()) {
+                        consumer.accept((UserSummary) results.get(0));
+                        count++;
+                    }
+                }
+
+                logger.info("Выгружено {} пользователей", count);
+                return count;
+            });
+
+        } catch (Exception e) {
+            logger.error("Ошибка при выгрузке кратких данных пользователей: {}", e.getMessage(), e);
+            throw DataAccessException.translate("Ошибка при получении пользователей", e);
         }
     }
 
     /**
      * Обновить данные пользователя
-     * @param user пользователь с обновленными данными
-     * @return обновленный пользователь
-     * @throws RuntimeException если произошла ошибка при обновлении
+     * UPDATE выполняется с условием на версию записи: если пользователя успели изменить
+     * после чтения, обновление не применяется. Тот же запрос возвращает прежние email и возраст
+     * (RETURNING), поэтому из кэша email -> ID удаляются только старый и новый адреса
+     * и только если email действительно изменился, а живая статистика изменяется на точную
+     * разницу возрастов без сверки с базой. Запись пользователя и затронутые email блокируются
+     * в кэше второго уровня (мягкая блокировка READ_WRITE) до завершения транзакции, поэтому
+     * чтение, начатое до фиксации, не вернет в кэш прежнюю версию
+     * @param user пользователь с обновленными данными и версией, с которой он был прочитан
+     * @return обновленный пользователь с новой версией
+     * @throws StaleUserException если запись была изменена или удалена другой транзакцией
+     * @throws DataAccessException если произошла ошибка при обновлении
      */
     public User updateUser(User user) {
         logger.info("Обновление пользователя с ID: {}", user.getId());
-        
-        Transaction transaction = null;
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            // Начинаем транзакцию
-            transaction = session.beginTransaction();
-            
-            // Обновляем пользователя в базе данных
-            session.update(user);
-            
-            // Подтверждаем транзакцию
-            transaction.commit();
-            
+        EMAIL_FILTER.add(user.getEmail());
+
+        try {
+            executeInTransaction("обновлении пользователя", session -> {
+                // Управляемый экземпляр отсоединяем, иначе при сбросе сессии Hibernate выполнил
+                // бы второй UPDATE с уже устаревшей версией
+                if (session.contains(user)) {
+                    session.evict(user);
+                }
+
+                lockUsersUntilCompletion(session, user.getId());
+                invalidateNearCacheAfterCompletion(session, user.getId());
+
+                // Подзапрос блокирует строку и читает значения до изменения
+                NativeQuery<?> query = createNativeWrite(session,
+                    "UPDATE users u SET name = :name, email = :email, age = :age, version = u.version + 1 " +
+                    "FROM (SELECT id, email, age FROM users WHERE id = :id FOR UPDATE) o " +
+                    "WHERE u.id = o.id AND u.version = :version " +
+                    "RETURNING o.email, u.version, o.age");
+                query.setParameter("name", user.getName(), StandardBasicTypes.STRING);
+                query.setParameter("email", user.getEmail(), StandardBasicTypes.STRING);
+                query.setParameter("age", user.getAge(), StandardBasicTypes.INTEGER);
+                query.setParameter("id", user.getId(), StandardBasicTypes.LONG);
+                query.setParameter("version", user.getVersion(), StandardBasicTypes.LONG);
+                List<?> rows = query.getResultList();
+                if (rows.isEmpty()) {
+                    throw new StaleStateException("Пользователь с ID " + user.getId() + " изменен или удален");
+                }
+
+                Object[] row = (Object[]) rows.get(0);
+                lockChangedEmailsUntilCompletion(session, (String) row[0], user.getEmail());
+                addEmailAfterCommit(session, user.getEmail());
+
+                recordAgeChangedAfterCommit(session, row[2], user.getAge());
+
+                user.setVersion(((Number) row[1]).longValue());
+                return user;
+            });
+
             logger.info("Пользователь с ID {} успешно обновлен", user.getId());
             return user;
-            
+
         } catch (Exception e) {
-            // В случае ошибки откатываем транзакцию
-            if (transaction != null) {
-                try {
-                    transaction.rollback();
-                    logger.warn("Транзакция отменена из-за ошибки при обновлении пользователя");
-                } catch (Exception rollbackEx) {
-                    logger.error("Ошибка при откате транзакции: {}", rollbackEx.getMessage());
-                }
+            if (isStaleState(e)) {
+                logger.warn("Пользователь с ID {} был изменен другой транзакцией", user.getId());
+                throw new StaleUserException(user.getId(), e);
             }
-            
+
             logger.error("Ошибка при обновлении пользователя: {}", e.getMessage(), e);
-            throw new RuntimeException("Не удалось обновить пользователя: " + e.getMessage(), e);
+            throw DataAccessException.translate("Не удалось обновить пользователя", e);
+        }
+    }
+
+    /**
+     * Частично обновить пользователя по ID одним запросом UPDATE без предварительной загрузки
+     * Записываются только поля, установленные в patch, остальные колонки не изменяются
+     * @param id идентификатор пользователя
+     * @param patch изменяемые поля
+     * @return количество обновленных строк (0 если пользователь не найден)
+     * @throws DataAccessException если произошла ошибка при обновлении
+     */
+    public int patchUser(long id, UserPatch patch) {
+        if (patch.isEmpty()) {
+            throw new IllegalArgumentException("Не указано ни одного изменяемого поля");
+        }
+        logger.info("Частичное обновление пользователя с ID {}: {}", id, patch);
+        EMAIL_FILTER.add(patch.getEmail());
+
+        try {
+            int updated = withRetry("patchUser", () ->
+                executeInTransaction("частичном обновлении пользователя", session -> {
+                    NativeQuery<?> query = createNativeWrite(session, "UPDATE users u SET " + patch.toSql() +
+                        " FROM (SELECT id, email, age FROM users WHERE id = :id FOR UPDATE) o" +
+                        " WHERE u.id = o.id RETURNING o.email, o.age, u.age");
+                    patch.bindParameters(query);
+                    query.setParameter("id", id);
+                    lockUsersUntilCompletion(session, id);
+                    invalidateNearCacheAfterCompletion(session, id);
+                    List<?> rows = query.getResultList();
+                    if (rows.isEmpty()) {
+                        return 0;
+                    }
+                    Object[] row = (Object[]) rows.get(0);
+                    lockChangedEmailsUntilCompletion(session, (String) row[0], patch.getEmail());
+                    addEmailAfterCommit(session, patch.getEmail());
+                    recordAgeChangedAfterCommit(session, row[1], row[2]);
+                    return rows.size();
+                }));
+
+            logger.info("Пользователь с ID {} {}", id, updated > 0 ? "успешно обновлен" : "не найден для обновления");
+            return updated;
+
+        } catch (Exception e) {
+            logger.error("Ошибка при частичном обновлении пользователя с ID {}: {}", id, e.getMessage(), e);
+            throw DataAccessException.translate("Не удалось обновить пользователя", e);
+        }
+    }
+
+    /**
+     * Изменить пользователя, только если его версия не изменилась (compare-and-set)
+     * Выполняется одним UPDATE ... WHERE id = ? AND version = ?, без предварительного чтения.
+     * Подзапрос блокирует строку (FOR UPDATE) до конца этой короткой транзакции, чтобы вернуть
+     * прежние email и возраст: из нескольких одновременных редакторов одной записи изменение
+     * применит только первый, остальные дождутся его фиксации и получат false.
+     * Не повторяется автоматически: повтор уже примененного изменения вернул бы false
+     * @param id идентификатор пользователя
+     * @param expectedVersion версия, с которой пользователь был прочитан
+     * @param patch изменяемые поля
+     * @return true если изменение применено, false если версия устарела или пользователь удален
+     * @throws DataAccessException если произошла ошибка при обновлении
+     */
+    public boolean compareAndSetUser(long id, long expectedVersion, UserPatch patch) {
+        if (patch.isEmpty()) {
+            throw new IllegalArgumentException("Не указано ни одного изменяемого поля");
+        }
+        logger.info("Обновление пользователя с ID {} версии {}: {}", id, expectedVersion, patch);
+        EMAIL_FILTER.add(patch.getEmail());
+
+        try {
+            boolean applied = executeInTransaction("обновлении пользователя по версии", session -> {
+                NativeQuery<?> query = createNativeWrite(session, "UPDATE users u SET " + patch.toSql() +
+                    " FROM (SELECT id, email, age FROM users WHERE id = :id FOR UPDATE) o" +
+                    " WHERE u.id = o.id AND u.version = :expectedVersion RETURNING o.email, o.age, u.age");
+                patch.bindParameters(query);
+                query.setParameter("id", id);
+                query.setParameter("expectedVersion", expectedVersion);
+                lockUsersUntilCompletion(session, id);
+                invalidateNearCacheAfterCompletion(session, id);
+                List<?> rows = query.getResultList();
+                if (rows.isEmpty()) {
+                    return false;
+                }
+                Object[] row = (Object[]) rows.get(0);
+                lockChangedEmailsUntilCompletion(session, (String) row[0], patch.getEmail());
+                addEmailAfterCommit(session, patch.getEmail());
+                recordAgeChangedAfterCommit(session, row[1], row[2]);
+                return true;
+            });
+
+            if (applied) {
+                logger.info("Пользователь с ID {} успешно обновлен", id);
+            } else {
+                logger.warn("Версия пользователя с ID {} устарела, изменение не применено", id);
+            }
+            return applied;
+
+        } catch (Exception e) {
+            logger.error("Ошибка при обновлении пользователя с ID {}: {}", id, e.getMessage(), e);
+            throw DataAccessException.translate("Не удалось обновить пользователя", e);
         }
     }
 
     /**
-     * Удалить пользователя по ID
+     * Удалить пользователя по ID одним запросом DELETE без предварительной загрузки сущности
+     * Запрос возвращает возраст удаленного пользователя (RETURNING age) для живой статистики.
+     * Потеря соединения во время фиксации не повторяется автоматически: повтор уже
+     * зафиксированного удаления сообщил бы, что пользователь не найден
      * @param id идентификатор пользователя для удаления
      * @return true если пользователь был удален, false если пользователь не найден
-     * @throws RuntimeException если произошла ошибка при удалении
+     * @throws NonRetryableDataAccessException если соединение потеряно во время фиксации (результат неизвестен)
+     * @throws DataAccessException если произошла ошибка при удалении
      */
     public boolean deleteUser(Long id) {
         logger.info("Удаление пользователя с ID: {}", id);
-        
-        Transaction transaction = null;
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            // Начинаем транзакцию
-            transaction = session.beginTransaction();
-            
-            // Находим пользователя для удаления
-            User user = session.get(User.class, id);
-            
-            if (user != null) {
-                // Удаляем пользователя из базы данных
-                session.delete(user);
-                
-                // Подтверждаем транзакцию
-                transaction.commit();
-                
+
+        try {
+            // Найден ли пользователь, определяем по количеству удаленных строк
+            int deleted = withRetry("deleteUser", () ->
+                executeInTransaction("удалении пользователя", true, session -> {
+                    // Нативный DELETE ... RETURNING выполняется как выборка, поэтому запись кэша
+                    // второго уровня и соответствие email -> ID блокируем сами
+                    lockUsersUntilCompletion(session, id);
+                    invalidateNearCacheAfterCompletion(session, id);
+
+                    List<?> rows = createNativeWrite(session, "DELETE FROM users WHERE id = :id RETURNING age, email")
+                            .setParameter("id", id)
+                            .getResultList();
+                    return applyDeletedRows(session, rows);
+                }));
+
+            if (deleted > 0) {
                 logger.info("Пользователь с ID {} успешно удален", id);
                 return true;
             } else {
-                // Пользователь не найден, откатываем транзакцию
-                transaction.rollback();
                 logger.info("Пользователь с ID {} не найден для удаления", id);
                 return false;
             }
-            
+
         } catch (Exception e) {
-            // В случае ошибки откатываем транзакцию
-            if (transaction != null) {
-                try {
-                    transaction.rollback();
-                    logger.warn("Транзакция отменена из-за ошибки при удалении пользователя");
-                } catch (Exception rollbackEx) {
-                    logger.error("Ошибка при откате транзакции: {}", rollbackEx.getMessage());
-                }
-            }
-            
             logger.error("Ошибка при удалении пользователя с ID {}: {}", id, e.getMessage(), e);
-            throw new RuntimeException("Не удалось удалить пользователя: " + e.getMessage(), e);
+            throw DataAccessException.translate("Не удалось удалить пользователя", e);
         }
     }
 
     /**
-     * Проверить существование пользователя с указанным email
-     * @param email email для проверки
-     * @return true если пользователь с таким email существует, false если нет
+     * Удалить пользователей по списку ID одним запросом
+     * Список передается в PostgreSQL одним параметром-массивом (id = ANY(CAST(:ids AS bigint[])))
+     * @param ids идентификаторы пользователей для удаления
+     * @return количество удаленных пользователей (несуществующие ID пропускаются)
+     * @throws DataAccessException если произошла ошибка при удалении
      */
-    public boolean existsByEmail(String email) {
-        logger.info("Проверка существования пользователя с email: {}", email);
-        
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            // Создаем запрос для подсчета пользователей с указанным email
-            Query<Long> query = session.createQuery(
-                "SELECT COUNT(u) FROM User u WHERE u.email = :email", Long.class);
-            query.setParameter("email", email);
-            
-            Long count = query.getSingleResult();
-            boolean exists = count > 0;
-            
-            logger.info("Пользователь с email {} {}", email, exists ? "существует" : "не существует");
-            return exists;
-            
+    public int deleteUsersByIds(long[] ids) {
+        if (ids.length == 0) {
+            return 0;
+        }
+        logger.info("Удаление {} пользователей по списку ID", ids.length);
+
+        try {
+            int deleted = withRetry("deleteUsersByIds", () ->
+                executeInTransaction("удалении пользователей по списку ID", true, session -> {
+                    lockUsersUntilCompletion(session, ids);
+                    invalidateNearCacheAfterCompletion(session, ids);
+
+                    // Список передается одним текстовым параметром вида {1,2,3}, поэтому текст
+                    // запроса не зависит от количества ID. RETURNING возвращает возрасты удаленных
+                    // пользователей для живой статистики и их email для блокировки кэша email -> ID
+                    StringJoiner idArray = new StringJoiner(",", "{", "}");
+                    for (long id : ids) {
+                        idArray.add(Long.toString(id));
+                    }
+                    List<?> rows = createNativeWrite(session,
+                            "DELETE FROM users WHERE id = ANY(CAST(:ids AS bigint[])) RETURNING age, email")
+                            .setParameter("ids", idArray.toString(), StandardBasicTypes.STRING)
+                            .getResultList();
+                    return applyDeletedRows(session, rows);
+                }));
+
+            logger.info("Удалено пользователей по списку ID: {}", deleted);
+            return deleted;
+
         } catch (Exception e) {
-            logger.error("Ошибка при проверке существования пользователя с email {}: {}", 
-                        email, e.getMessage(), e);
-            throw new RuntimeException("Ошибка при проверке пользователя: " + e.getMessage(), e);
+            logger.error("Ошибка при удалении пользователей по списку ID: {}", e.getMessage(), e);
+            throw DataAccessException.translate("Не удалось удалить пользователей", e);
         }
     }
 
     /**
-     * Получить количество всех пользователей в системе
-     * @return общее количество пользователей
+     * Удалить всех пользователей, подходящих под фильтр, одним запросом DELETE
+     * Удаляемые записи заранее неизвестны, поэтому регионы пользователей в кэше второго уровня
+     * очищаются целиком; deleteUsers(filter, chunkSize) блокирует в кэше только удаляемые записи
+     * @param filter непустой фильтр пользователей
+     * @return количество удаленных пользователей
+     * @throws DataAccessException если произошла ошибка при удалении
      */
-    public long getUserCount() {
-        logger.info("Получение количества пользователей");
-        
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            Query<Long> query = session.createQuery("SELECT COUNT(u) FROM User u", Long.class);
-            Long count = query.getSingleResult();
-            
-            logger.info("Общее количество пользователей: {}", count);
-            return count;
-            
+    public int deleteUsers(UserFilter filter) {
+        requireConditions(filter);
+        logger.info("Массовое удаление пользователей по фильтру: {}", filter);
+
+        try {
+            int deleted = withRetry("deleteUsers", () ->
+                executeInTransaction("массовом удалении пользователей", true, session -> {
+                    Query<?> query = session.createQuery("DELETE FROM User u WHERE " + filter.toHql());
+                    filter.bindParameters(query);
+                    clearNearCacheAfterCompletion(session);
+                    runAfterCommit(session, LIVE_STATISTICS::markDirty);
+                    int deletedRows = query.executeUpdate();
+                    runAfterCommit(session, () -> USER_COUNT.recordDeleted(deletedRows));
+                    return deletedRows;
+                }));
+
+            logger.info("Удалено пользователей по фильтру: {}", deleted);
+            return deleted;
+
         } catch (Exception e) {
-            logger.error("Ошибка при получении количества пользователей: {}", e.getMessage(), e);
-            throw new RuntimeException("Ошибка при подсчете пользователей: " + e.getMessage(), e);
+            logger.error("Ошибка при массовом удалении пользователей: {}", e.getMessage(), e);
+            throw DataAccessException.translate("Не удалось удалить пользователей", e);
+        }
+    }
+
+    /**
+     * Удалить всех пользователей, подходящих под фильтр, порциями
+     * Каждая порция удаляется в отдельной короткой транзакции, поэтому блокировки
+     * не удерживаются на все время удаления. Порции выбираются по возрастанию ID, и каждая
+     * следующая начинается после последнего ID предыдущей (u.id > :lastId), поэтому запрос
+     * не просматривает заново строки, удаленные предыдущими порциями (до VACUUM они остаются
+     * в таблице мертвыми). Операция в целом не атомарна: при ошибке уже удаленные порции
+     * остаются удаленными
+     * @param filter непустой фильтр пользователей
+     * @param chunkSize максимальное количество строк, удаляемых в одной транзакции
+     * @return общее количество удаленных пользователей
+     * @throws DataAccessException если произошла ошибка при удалении
+     */
+    public long deleteUsers(UserFilter filter, int chunkSize) {
+        requireConditions(filter);
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Размер порции должен быть положительным: " + chunkSize);
+        }
+        logger.info("Удаление пользователей по фильтру {} порциями по {}", filter, chunkSize);
+
+        long total = 0;
+        Long lastId = null;
+        while (true) {
+            DeletedChunk chunk = deleteChunk(filter, chunkSize, lastId);
+            total += chunk.deleted;
+            if (chunk.selected < chunkSize) {
+                break;
+            }
+            lastId = chunk.lastId;
+        }
+
+        logger.info("Всего удалено пользователей по фильтру: {}", total);
+        return total;
+    }
+
+    /**
+     * Удалить одну порцию пользователей, подходящих под фильтр
+     * @param filter фильтр пользователей
+     * @param chunkSize максимальный размер порции
+     * @param lastId последний ID предыдущей порции или null для первой порции
+     * @return количество выбранных и удаленных в этой порции пользователей и последний выбранный ID
+     */
+    private DeletedChunk deleteChunk(UserFilter filter, int chunkSize, Long lastId) {
+        try {
+            DeletedChunk chunk = withRetry("deleteChunk", () ->
+                executeInTransaction("удалении порции пользователей", session -> {
+                    // Выбираем ID очередной порции: HQL не поддерживает LIMIT в подзапросе DELETE
+                    Query<Long> idsQuery = session.createQuery(
+                        "SELECT u.id FROM User u WHERE " + filter.toHql() +
+                        (lastId != null ? " AND u.id > :lastId" : "") + " ORDER BY u.id", Long.class);
+                    filter.bindParameters(idsQuery);
+                    if (lastId != null) {
+                        idsQuery.setParameter("lastId", lastId);
+                    }
+                    idsQuery.setMaxResults(chunkSize);
+                    List<Long> ids = idsQuery.getResultList();
+
+                    if (ids.isEmpty()) {
+                        return new DeletedChunk(0, 0, lastId);
+                    }
+                    // Удаляемые ID известны, поэтому в кэше второго уровня блокируются только они
+                    long[] chunkIds = ids.stream().mapToLong(Long::longValue).toArray();
+                    lockUsersUntilCompletion(session, chunkIds);
+                    invalidateNearCacheAfterCompletion(session, chunkIds);
+                    List<?> rows = createNativeWrite(session, "DELETE FROM users WHERE id IN (:ids) RETURNING age, email")
+                            .setParameterList("ids", ids)
+                            .getResultList();
+                    int deleted = applyDeletedRows(session, rows);
+                    return new DeletedChunk(ids.size(), deleted, ids.get(ids.size() - 1));
+                }));
+
+            logger.info("Удалена порция пользователей: {}", chunk.deleted);
+            return chunk;
+
+        } catch (Exception e) {
+            logger.error("Ошибка при удалении порции пользователей: {}", e.getMessage(), e);
+            throw DataAccessException.translate("Не удалось удалить пользователей", e);
+        }
+    }
+
+    /**
+     * Обновить всех пользователей, подходящих под фильтр, одним запросом UPDATE
+     * Обновляемые записи заранее неизвестны, поэтому регионы пользователей в кэше второго уровня
+     * очищаются целиком. Потеря соединения во время фиксации не повторяется автоматически:
+     * повтор уже зафиксированного изменения сообщил бы неверное количество обновленных записей
+     * @param filter непустой фильтр пользователей
+     * @param changes изменяемые поля
+     * @return количество обновленных пользователей
+     * @throws NonRetryableDataAccessException если соединение потеряно во время фиксации (результат неизвестен)
+     * @throws DataAccessException если произошла ошибка при обновлении
+     */
+    public int updateUsers(UserFilter filter, UserPatch changes) {
+        requireConditions(filter);
+        if (changes.isEmpty()) {
+            throw new IllegalArgumentException("Не указано ни одного изменяемого поля");
+        }
+        logger.info("Массовое обновление пользователей по фильтру {}: {}", filter, changes);
+        EMAIL_FILTER.add(changes.getEmail());
+
+        try {
+            int updated = withRetry("updateUsers", () ->
+                executeInTransaction("массовом обновлении пользователей", true, session -> {
+                    Query<?> query = session.createQuery(
+                        "UPDATE User u SET " + changes.toHql() + " WHERE " + filter.toHql());
+                    changes.bindParameters(query);
+                    filter.bindParameters(query);
+                    clearNearCacheAfterCompletion(session);
+                    addEmailAfterCommit(session, changes.getEmail());
+                    markStatisticsDirtyAfterCommit(session, changes);
+                    return query.executeUpdate();
+                }));
+
+            logger.info("Обновлено пользователей по фильтру: {}", updated);
+            return updated;
+
+        } catch (Exception e) {
+            logger.error("Ошибка при массовом обновлении пользователей: {}", e.getMessage(), e);
+            throw DataAccessException.translate("Не удалось обновить пользователей", e);
+        }
+    }
+
+    /**
+     * Проверить существование пользователя с указанным email
+     * Если фильтр email точно знает, что адрес свободен, ответ дается без обращения к базе.
+     * Иначе используется EXISTS: поиск по уникальному индексу прекращается на первой найденной строке
+     * @param email email для проверки
+     * @return true если пользователь с таким email существует, false если нет
+     */
+    public boolean existsByEmail(String email) {
+        logger.info("Проверка существования пользователя с email: {}", email);
+
+        if (!EMAIL_FILTER.mightContain(email)) {
+            logger.info("Пользователь с email {} не существует (фильтр email)", email);
+            return false;
+        }
+
+        try {
+            return withRetry("existsByEmail", () -> executeReadOnly(session -> {
+                Object result = session.createNativeQuery(
+                    "SELECT EXISTS (SELECT 1 FROM users WHERE email = :email)")
+                        .setParameter("email", email)
+                        .getSingleResult();
+                boolean exists = Boolean.TRUE.equals(result);
+                if (!exists) {
+                    EMAIL_FILTER.recordFalsePositive();
+                }
+
+                logger.info("Пользователь с email {} {}", email, exists ? "существует" : "не существует");
+                return exists;
+            }));
+
+        } catch (Exception e) {
+            logger.error("Ошибка при проверке существования пользователя с email {}: {}",
+                        email, e.getMessage(), e);
+            throw DataAccessException.translate("Ошибка при проверке пользователя", e);
+        }
+    }
+
+    /**
+     * Найти, какие из переданных email уже заняты, одним запросом
+     * Список передается в PostgreSQL одним параметром-массивом (email = ANY(?)),
+     * поэтому размер запроса и план выполнения не зависят от количества адресов.
+     * Адреса, которые фильтр email считает точно свободными, в запрос не передаются
+     * @param emails email адреса для проверки
+     * @return множество email из переданных, которые уже есть в базе
+     */
+    public Set<String> existingEmails(Collection<String> emails) {
+        if (emails.isEmpty()) {
+            return new HashSet<>();
+        }
+        logger.info("Проверка существования {} email адресов", emails.size());
+
+        // В базе проверяются только адреса, которые возможно заняты
+        Set<String> candidates = new HashSet<>();
+        for (String email : emails) {
+            if (EMAIL_FILTER.mightContain(email)) {
+                candidates.add(email);
+            }
+        }
+        if (candidates.isEmpty()) {
+            logger.info("Все {} email адресов свободны (фильтр email)", emails.size());
+            return new HashSet<>();
+        }
+
+        try {
+            return withRetry("existingEmails", () -> executeReadOnly(session ->
+                session.doReturningWork(connection -> {
+                    Set<String> found = new HashSet<>();
+                    Array emailArray = connection.createArrayOf("varchar", candidates.toArray(new String[0]));
+                    try (PreparedStatement statement = connection.prepareStatement(
+                            "SELECT email FROM users WHERE email = ANY(?)")) {
+                        statement.setArray(1, emailArray);
+                        try (ResultSet resultSet = statement.executeQuery()) {
+                            while (resultSet.next()) {
+                                found.add(resultSet.getString(1));
+                            }
+                        }
+                    } finally {
+                        emailArray.free();
+                    }
+
+                    for (int i = found.size(); i < candidates.size(); i++) {
+                        EMAIL_FILTER.recordFalsePositive();
+                    }
+
+                    logger.info("Из {} email адресов уже заняты: {}", emails.size(), found.size());
+                    return found;
+                })));
+
+        } catch (Exception e) {
+            logger.error("Ошибка при проверке существования email адресов: {}", e.getMessage(), e);
+            throw DataAccessException.translate("Ошибка при проверке пользователей", e);
+        }
+    }
+
+    /**
+     * Загрузить в фильтр email все существующие адреса потоковым сканированием таблицы
+     * и запустить его периодическую пересборку, учитывающую записи в обход приложения.
+     * До окончания загрузки фильтр не дает отрицательных ответов, поэтому вызывать метод
+     * можно в фоновом потоке при запуске приложения
+     * @return количество загруженных адресов
+     */
+    public long loadEmailFilter() {
+        logger.info("Загрузка email адресов в фильтр");
+
+        long loaded = EMAIL_FILTER.rebuild(this::scanEmails);
+        EMAIL_FILTER.scheduleRebuilds(this::scanEmails);
+
+        logger.info("В фильтр загружено email адресов: {}", loaded);
+        return loaded;
+    }
+
+    /**
+     * Передать получателю email всех пользователей потоковым сканированием таблицы
+     * @param consumer получатель адресов
+     * @return количество адресов
+     */
+    private long scanEmails(Consumer<String> consumer) {
+        return streamUserSummaries(summary -> consumer.accept(summary.getEmail()));
+    }
+
+    /**
+     * Получить фильтр Блума занятых email адресов (для просмотра его статистики)
+     * @return фильтр email
+     */
+    public EmailBloomFilter getEmailFilter() {
+        return EMAIL_FILTER;
+    }
+
+    /**
+     * Получить статистику ближнего кэша пользователей
+     * @return попадания, промахи, доля попаданий и количество пользователей в кэше
+     */
+    public CacheRegionMetrics getNearCacheMetrics() {
+        return NEAR_CACHE.metrics("user-near-cache");
+    }
+
+    /**
+     * Получить точное количество всех пользователей в системе
+     * Результат берется из кэша результатов, пока таблица не изменялась и он не старше
+     * допустимой устарелости, поэтому частые вызовы не выполняют COUNT(*) по всей таблице
+     * @return общее количество пользователей
+     */
+    public long getUserCount() {
+        return getUserCount(CountMode.EXACT);
+    }
+
+    /**
+     * Получить количество всех пользователей выбранным способом
+     * EXACT выполняет COUNT(*) (с кэшем результатов), ESTIMATED читает оценку планировщика
+     * без просмотра таблицы, MAINTAINED возвращает значение, поддерживаемое по зафиксированным
+     * через DAO созданиям и удалениям и сверяемое с базой не реже USER_COUNT_MAX_STALENESS_MS
+     * (по умолчанию 5 минут). ESTIMATED и MAINTAINED не видят
+     * незафиксированных изменений текущей единицы работы
+     * @param mode способ подсчета
+     * @return количество пользователей (для ESTIMATED - приблизительное)
+     */
+    public long getUserCount(CountMode mode) {
+        logger.info("Получение количества пользователей ({})", mode);
+
+        try {
+            switch (mode) {
+                case ESTIMATED:
+                    return estimateUserCount();
+                case MAINTAINED:
+                    return USER_COUNT.get();
+                default:
+                    return cached("count", this::countUsersExactly);
+            }
+
+        } catch (Exception e) {
+            logger.error("Ошибка при получении количества пользователей: {}", e.getMessage(), e);
+            throw DataAccessException.translate("Ошибка при подсчете пользователей", e);
+        }
+    }
+
+    /**
+     * Получить сводную статистику пользователей одним агрегирующим запросом
+     * Количество, минимальный, максимальный, средний возраст и перцентили считаются в базе
+     * за один проход по таблице, без загрузки сущностей в память. Результат берется из кэша
+     * результатов, пока таблица не изменялась
+     * @return статистика пользователей
+     */
+    public UserStatistics getStatistics() {
+        logger.info("Получение статистики пользователей");
+
+        try {
+            return cached("statistics", () -> withRetry("getStatistics", () -> executeReadOnly(session -> {
+                // Агрегаты по age (кроме count(*)) пропускают NULL, поэтому считаются по пользователям с возрастом
+                Object[] row = (Object[]) session.createNativeQuery(
+                    "SELECT count(*), count(age), min(age), max(age), avg(age), " +
+                    "percentile_cont(0.5) WITHIN GROUP (ORDER BY age), " +
+                    "percentile_cont(0.9) WITHIN GROUP (ORDER BY age) " +
+                    "FROM users")
+                        .getSingleResult();
+
+                UserStatistics statistics = new UserStatistics(
+                    ((Number) row[0]).longValue(),
+                    ((Number) row[1]).longValue(),
+                    row[2] != null ? ((Number) row[2]).intValue() : null,
+                    row[3] != null ? ((Number) row[3]).intValue() : null,
+                    row[4] != null ? ((Number) row[4]).doubleValue() : null,
+                    row[5] != null ? ((Number) row[5]).doubleValue() : null,
+                    row[6] != null ? ((Number) row[6]).doubleValue() : null);
+
+                logger.info("Статистика пользователей: {}", statistics);
+                return statistics;
+            })));
+
+        } catch (Exception e) {
+            logger.error("Ошибка при получении статистики пользователей: {}", e.getMessage(), e);
+            throw DataAccessException.translate("Ошибка при получении статистики", e);
+        }
+    }
+
+    /**
+     * Получить живую статистику пользователей без обращения к базе
+     * При первом вызове счетчики заполняются из базы одним запросом с группировкой по интервалам
+     * возраста; дальше они изменяются после каждой зафиксированной записи через DAO и
+     * периодически сверяются с базой (период задается переменной USER_STATS_RECONCILE_MS)
+     * @return живая статистика, общая для всех DAO
+     * @throws DataAccessException если не удалось заполнить счетчики при первом вызове
+     */
+    public LiveUserStatistics getLiveStatistics() {
+        try {
+            LIVE_STATISTICS.start(this::loadLiveStatistics);
+            return LIVE_STATISTICS;
+
+        } catch (Exception e) {
+            logger.error("Ошибка при заполнении живой статистики пользователей: {}", e.getMessage(), e);
+            throw DataAccessException.translate("Ошибка при получении статистики", e);
+        }
+    }
+
+    /**
+     * Посчитать пользователей запросом COUNT(*)
+     * @return точное количество пользователей
+     */
+    private long countUsersExactly() {
+        return withRetry("getUserCount", () -> executeReadOnly(session -> {
+            Query<Long> query = session.createNamedQuery(User.COUNT_ALL, Long.class);
+            Long count = query.getSingleResult();
+
+            logger.info("Общее количество пользователей: {}", count);
+            return count;
+        }));
+    }
+
+    /**
+     * Посчитать пользователей запросом COUNT(*) в отдельной сессии, даже внутри единицы работы
+     * Поддерживаемое количество складывает результат с изменениями, учтенными после фиксации,
+     * поэтому подсчет не должен видеть незафиксированные записи текущей единицы работы
+     * @return количество пользователей в зафиксированных данных
+     */
+    private long countCommittedUsers() {
+        return withRetry("getUserCount", () -> executeReadOnlyOutsideUnitOfWork(session -> {
+            Long count = session.createNamedQuery(User.COUNT_ALL, Long.class).getSingleResult();
+
+            logger.info("Зафиксированное количество пользователей: {}", count);
+            return count;
+        }));
+    }
+
+    /**
+     * Загрузить точные значения живой статистики одним запросом с группировкой по интервалам возраста
+     * Выполняется в отдельной сессии, даже внутри единицы работы: изменения учитываются в
+     * статистике после фиксации и не должны попасть в загруженные значения раньше
+     * @return значения в формате LiveUserStatistics: [количество, с возрастом, сумма возрастов, интервалы...]
+     */
+    private long[] loadLiveStatistics() {
+        return withRetry("loadLiveStatistics", () -> executeReadOnlyOutsideUnitOfWork(session -> {
+            // Пользователи без возраста попадают в группу с интервалом NULL
+            List<?> rows = session.createNativeQuery(
+                "SELECT greatest(least(age / " + LiveUserStatistics.BUCKET_WIDTH + ", " +
+                (LiveUserStatistics.BUCKET_COUNT - 1) + "), 0) AS bucket, count(*), sum(age) " +
+                "FROM users GROUP BY bucket")
+                    .getResultList();
+
+            long[] values = new long[LiveUserStatistics.FIRST_BUCKET + LiveUserStatistics.BUCKET_COUNT];
+            for (Object result : rows) {
+                Object[] row = (Object[]) result;
+                long count = ((Number) row[1]).longValue();
+                values[LiveUserStatistics.TOTAL] += count;
+                if (row[0] != null) {
+                    values[LiveUserStatistics.WITH_AGE] += count;
+                    values[LiveUserStatistics.SUM_OF_AGES] += ((Number) row[2]).longValue();
+                    values[LiveUserStatistics.FIRST_BUCKET + ((Number) row[0]).intValue()] += count;
+                }
+            }
+            return values;
+        }));
+    }
+
+    /**
+     * Оценить количество пользователей по статистике планировщика
+     * Как и планировщик, масштабирует плотность строк reltuples / relpages на текущий размер
+     * таблицы, поэтому оценка следует за ростом таблицы между запусками ANALYZE. Если таблица
+     * еще ни разу не анализировалась (reltuples = -1), выполняется точный подсчет
+     * @return приблизительное количество пользователей
+     */
+    private long estimateUserCount() {
+        Object estimate = withRetry("estimateUserCount", () -> executeReadOnly(session ->
+            session.createNativeQuery(
+                "SELECT (CASE WHEN c.reltuples < 0 THEN NULL " +
+                "WHEN c.relpages = 0 THEN 0 " +
+                "ELSE c.reltuples / c.relpages * (pg_relation_size(c.oid) / current_setting('block_size')::int) " +
+                "END)::bigint " +
+                "FROM pg_class c WHERE c.oid = 'users'::regclass")
+                    .getSingleResult()));
+
+        if (estimate == null) {
+            logger.info("Статистика таблицы users еще не собрана, выполняется точный подсчет");
+            return cached("count", this::countUsersExactly);
+        }
+
+        long count = ((Number) estimate).longValue();
+        logger.info("Оценка количества пользователей: {}", count);
+        return count;
+    }
+
+    /**
+     * Получить результат запроса из кэша результатов
+     * Внутри единицы работы кэш не используется: ее транзакция может видеть собственные
+     * незафиксированные изменения
+     * @param key ключ запроса
+     * @param loader запрос к базе данных
+     * @return результат запроса
+     */
+    private <T> T cached(String key, Supplier<T> loader) {
+        if (UNIT_OF_WORK.get() != null) {
+            return loader.get();
+        }
+        return resultCache.get(key, loader);
+    }
+
+    /**
+     * Выполнить операцию по политике повторов
+     * Внутри единицы работы повтор невозможен (транзакция прервана ошибкой), поэтому
+     * операция выполняется один раз, а повтор остается на усмотрение вызывающего кода
+     * @param operation название операции для лога
+     * @param action идемпотентная операция
+     * @return результат операции
+     */
+    private <T> T withRetry(String operation, Supplier<T> action) {
+        if (UNIT_OF_WORK.get() != null) {
+            return action.get();
+        }
+        return retryPolicy.execute(operation, action);
+    }
+
+    /**
+     * Выполнить работу в отдельной сессии и транзакции
+     * Внутри единицы работы (inTransaction) работа выполняется в ее сессии и транзакции.
+     * После завершения транзакции версия таблицы users увеличивается, поэтому кэш результатов
+     * не выдает прочитанное до изменения. При ошибке транзакция откатывается, а исключение
+     * пробрасывается без изменений
+     * @param operation описание операции для лога отката
+     * @param work работа, выполняемая в открытой транзакции
+     * @return результат работы
+     */
+    private <T> T executeInTransaction(String operation, Function<Session, T> work) {
+        return executeInTransaction(operation, false, work);
+    }
+
+    /**
+     * Выполнить работу в отдельной сессии и транзакции
+     * Для операций, результат которых описывает сделанное (создана ли запись, сколько строк удалено),
+     * потеря соединения во время фиксации пробрасывается как неповторяемая ошибка: транзакция могла
+     * быть зафиксирована, и повтор вернул бы неверный результат (UPDATED вместо INSERTED, "не найден"
+     * вместо "удален")
+     * @param operation описание операции для лога отката
+     * @param reportsOutcome true если результат работы описывает изменения, сделанные этой транзакцией
+     * @param work работа, выполняемая в открытой транзакции
+     * @return результат работы
+     */
+    private <T> T executeInTransaction(String operation, boolean reportsOutcome, Function<Session, T> work) {
+        Session current = UNIT_OF_WORK.get();
+        if (current != null) {
+            runAfterCompletion(current, UserResultCache::bumpVersion);
+
+            // Внутри единицы работы сбрасываем изменения сразу, чтобы ошибка относилась к этой операции
+            T result = work.apply(current);
+            current.flush();
+            return result;
+        }
+
+        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+            Transaction transaction = session.beginTransaction();
+            runAfterCompletion(session, UserResultCache::bumpVersion);
+            T result;
+            try {
+                result = work.apply(session);
+            } catch (RuntimeException e) {
+                rollbackQuietly(transaction, operation);
+                throw e;
+            }
+
+            try {
+                transaction.commit();
+                return result;
+            } catch (RuntimeException e) {
+                rollbackQuietly(transaction, operation);
+                if (reportsOutcome && DataAccessException.isConnectionFailure(e)) {
+                    throw DataAccessException.commitOutcomeUnknown("Ошибка при " + operation, e);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Выполнить чтение на соединении только для чтения
+     * Соединение берется из отдельного пула, соединения которого постоянно находятся в режиме
+     * только для чтения (см. HibernateUtil), поэтому режим не переключается при каждом чтении.
+     * Запросы выполняются в режиме autocommit без BEGIN/COMMIT: одиночному чтению транзакция
+     * не нужна, а ее фиксация была бы лишним обращением к базе на каждый поиск. Все загруженные
+     * сущности помечаются только для чтения, поэтому Hibernate не хранит для них снимки для
+     * dirty checking, а FlushMode.MANUAL исключает сброс сессии перед запросами.
+     * Внутри единицы работы (inTransaction) чтение выполняется в ее сессии и транзакции
+     * @param work чтение, выполняемое в открытой сессии
+     * @return результат чтения
+     */
+    private <T> T executeReadOnly(Function<Session, T> work) {
+        return executeReadOnly(work, false);
+    }
+
+    /**
+     * Выполнить чтение серверным курсором на соединении только для чтения
+     * Драйвер PostgreSQL получает строки порциями (fetch size) только при выключенном autocommit,
+     * поэтому курсорное чтение выполняется в транзакции (BEGIN READ ONLY ... COMMIT)
+     * @param work чтение, выполняемое в открытой транзакции
+     * @return результат чтения
+     */
+    private <T> T executeReadOnlyCursor(Function<Session, T> work) {
+        return executeReadOnly(work, true);
+    }
+
+    /**
+     * Выполнить чтение на соединении только для чтения
+     * @param work чтение, выполняемое в открытой сессии
+     * @param inTransaction true если чтению нужна транзакция (курсор с fetch size)
+     * @return результат чтения
+     */
+    private <T> T executeReadOnly(Function<Session, T> work, boolean inTransaction) {
+        Session current = UNIT_OF_WORK.get();
+        if (current != null) {
+            // Внутри единицы работы читаем в ее транзакции, видя ее несохраненные изменения
+            return work.apply(current);
+        }
+        return executeReadOnlyOutsideUnitOfWork(work, inTransaction);
+    }
+
+    /**
+     * Выполнить чтение в собственной сессии на соединении только для чтения, не присоединяясь
+     * к единице работы текущего потока: чтение видит только зафиксированные данные
+     * @param work чтение, выполняемое в открытой сессии
+     * @return результат чтения
+     */
+    private <T> T executeReadOnlyOutsideUnitOfWork(Function<Session, T> work) {
+        return executeReadOnlyOutsideUnitOfWork(work, false);
+    }
+
+    /**
+     * Выполнить чтение в собственной сессии на соединении только для чтения
+     * @param work чтение, выполняемое в открытой сессии
+     * @param inTransaction true если чтению нужна транзакция (курсор с fetch size)
+     * @return результат чтения
+     */
+    private <T> T executeReadOnlyOutsideUnitOfWork(Function<Session, T> work, boolean inTransaction) {
+        // Соединение закрывается (возвращается в пул) после закрытия сессии
+        try (Connection connection = HibernateUtil.getReadOnlyConnection();
+             Session session = HibernateUtil.getSessionFactory().withOptions()
+                     .connection(connection)
+                     .flushMode(FlushMode.MANUAL)
+                     .openSession()) {
+            session.setDefaultReadOnly(true);
+
+            if (!inTransaction) {
+                return work.apply(session);
+            }
+
+            Transaction transaction = session.beginTransaction();
+            try {
+                T result = work.apply(session);
+                transaction.commit();
+                return result;
+            } catch (RuntimeException e) {
+                rollbackQuietly(transaction, "чтении данных");
+                throw e;
+            }
+
+        } catch (SQLException e) {
+            throw DataAccessException.translate("Не удалось получить соединение только для чтения", e);
+        }
+    }
+
+    /**
+     * Получить ID для нативного INSERT пользователя от генератора Hibernate
+     * Генератор выделяет ID из блока последовательности размером User.ID_ALLOCATION_SIZE в памяти,
+     * тогда как nextval в самом запросе расходовал бы на каждую запись целый блок
+     * @param session сессия с начатой транзакцией
+     * @param user сохраняемый пользователь
+     * @return новый ID
+     */
+    private static long nextUserId(Session session, User user) {
+        SharedSessionContractImplementor implementor = (SharedSessionContractImplementor) session;
+        return ((Number) userPersister(implementor).getIdentifierGenerator().generate(implementor, user)).longValue();
+    }
+
+    /**
+     * Установить параметры нативного INSERT пользователя
+     * Типы указываются явно, чтобы PostgreSQL корректно принимал null в колонке age
+     * @param query нативный запрос с параметрами name, email, age, createdAt
+     * @param user сохраняемый пользователь
+     */
+    private static void bindInsertParameters(NativeQuery<?> query, User user) {
+        // Нативный INSERT не вызывает @PrePersist, поэтому дату создания заполняем здесь
+        if (user.getCreatedAt() == null) {
+            user.setCreatedAt(LocalDateTime.now());
+        }
+        query.setParameter("name", user.getName(), StandardBasicTypes.STRING);
+        query.setParameter("email", user.getEmail(), StandardBasicTypes.STRING);
+        query.setParameter("age", user.getAge(), StandardBasicTypes.INTEGER);
+        query.setParameter("createdAt", user.getCreatedAt(), LocalDateTimeType.INSTANCE);
+    }
+
+    /**
+     * Создать нативный изменяющий запрос с RETURNING, который не очищает кэш второго уровня целиком
+     * Для нативного или HQL UPDATE/DELETE через executeUpdate Hibernate очищает все затронутые
+     * регионы кэша, так как не знает, какие записи изменены. Запрос с RETURNING выполняется
+     * через getResultList как выборка и регионы не очищает; пространство запросов users
+     * только сбрасывает перед ним несохраненные изменения пользователей в сессии.
+     * Измененные записи вызывающий код блокирует в кэше сам (lockUsersUntilCompletion)
+     * @param session сессия с начатой транзакцией
+     * @param sql текст запроса с RETURNING
+     * @return нативный запрос, выполняемый через getResultList
+     */
+    private static NativeQuery<?> createNativeWrite(Session session, String sql) {
+        NativeQuery<?> query = session.createNativeQuery(sql);
+        query.addSynchronizedEntityClass(User.class);
+        return query;
+    }
+
+    /**
+     * Учесть строки, возвращенные нативным DELETE ... RETURNING age, email
+     * Соответствия email -> ID удаленных пользователей блокируются в кэше до завершения
+     * транзакции, а живая статистика изменяется после фиксации
+     * @param session сессия с начатой транзакцией
+     * @param rows строки [age, email]
+     * @return количество удаленных пользователей
+     */
+    private static int applyDeletedRows(Session session, List<?> rows) {
+        List<Object> ages = new ArrayList<>(rows.size());
+        List<String> emails = new ArrayList<>(rows.size());
+        for (Object row : rows) {
+            ages.add(((Object[]) row)[0]);
+            emails.add((String) ((Object[]) row)[1]);
+        }
+        lockEmailsUntilCompletion(session, emails);
+        recordDeletedAfterCommit(session, ages);
+        return rows.size();
+    }
+
+    /**
+     * Заблокировать соответствия email -> ID старого и нового адреса, если email изменился
+     * @param session сессия с начатой транзакцией
+     * @param oldEmail email до изменения
+     * @param newEmail email после изменения или null, если email не изменялся
+     */
+    private static void lockChangedEmailsUntilCompletion(Session session, String oldEmail, String newEmail) {
+        if (newEmail != null && !newEmail.equals(oldEmail)) {
+            lockEmailsUntilCompletion(session, Arrays.asList(oldEmail, newEmail));
+        }
+    }
+
+    /**
+     * Заблокировать записи пользователей в кэше второго уровня до завершения текущей транзакции
+     * Нативные запросы проходят мимо Hibernate, поэтому мягкую блокировку READ_WRITE берем
+     * сами, как Hibernate при сбросе изменений сессии. Пока блокировка установлена, putFromLoad
+     * не помещает запись в регион, а после снятия блокировки отказывает чтениям, начатым до
+     * фиксации; поэтому прочитанная до изменения версия в кэш не вернется. Блокировка
+     * снимается после фиксации или отката
+     * @param session сессия с начатой транзакцией
+     * @param ids идентификаторы изменяемых пользователей
+     */
+    private static void lockUsersUntilCompletion(Session session, long... ids) {
+        SharedSessionContractImplementor implementor = session.unwrap(SharedSessionContractImplementor.class);
+        EntityPersister persister = userPersister(implementor);
+        EntityDataAccess access = persister.getCacheAccessStrategy();
+        if (access == null || ids.length == 0) {
+            return;
+        }
+        List<Object> keys = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            keys.add(access.generateCacheKey(id, persister, implementor.getFactory(), implementor.getTenantIdentifier()));
+        }
+        lockUntilCompletion(session, implementor, access, keys);
+    }
+
+    /**
+     * Заблокировать соответствия email -> ID в кэше естественных ключей до завершения текущей транзакции
+     * Блокируются только указанные адреса, остальные соответствия в регионе сохраняются
+     * @param session сессия с начатой транзакцией
+     * @param emails прежние и новые email изменяемых или удаляемых пользователей
+     */
+    private static void lockEmailsUntilCompletion(Session session, Collection<?> emails) {
+        SharedSessionContractImplementor implementor = session.unwrap(SharedSessionContractImplementor.class);
+        EntityPersister persister = userPersister(implementor);
+        NaturalIdDataAccess access = persister.getNaturalIdCacheAccessStrategy();
+        if (access == null || emails.isEmpty()) {
+            return;
+        }
+        List<Object> keys = new ArrayList<>(emails.size());
+        for (Object email : emails) {
+            if (email != null) {
+                keys.add(access.generateCacheKey(new Object[] {email}, persister, implementor));
+            }
+        }
+        lockUntilCompletion(session, implementor, access, keys);
+    }
+
+    /**
+     * Взять мягкие блокировки ключей региона и снять их после завершения текущей транзакции
+     * @param session сессия с начатой транзакцией
+     * @param implementor та же сессия как SharedSessionContractImplementor
+     * @param access доступ к региону кэша
+     * @param keys ключи кэша
+     */
+    private static void lockUntilCompletion(Session session, SharedSessionContractImplementor implementor,
+                                            CachedDomainDataAccess access, List<Object> keys) {
+        List<SoftLock> locks = new ArrayList<>(keys.size());
+        for (Object key : keys) {
+            locks.add(access.lockItem(implementor, key, null));
+        }
+        runAfterCompletion(session, () -> {
+            for (int i = 0; i < keys.size(); i++) {
+                access.unlockItem(implementor, keys.get(i), locks.get(i));
+            }
+        });
+    }
+
+    /**
+     * Получить описание сущности User в метамодели Hibernate
+     * @param session сессия
+     * @return persister сущности User
+     */
+    private static EntityPersister userPersister(SharedSessionContractImplementor session) {
+        return session.getFactory().getMetamodel().entityPersister(User.class);
+    }
+
+    /**
+     * Повторно добавить email в фильтр после фиксации текущей транзакции
+     * Пересборка фильтра, начатая до фиксации, не видит записи, и email, добавленный до записи,
+     * мог остаться только в замененном массиве фильтра
+     * @param session сессия с начатой транзакцией
+     * @param email записанный email (null игнорируется)
+     */
+    private static void addEmailAfterCommit(Session session, String email) {
+        if (email != null) {
+            runAfterCommit(session, () -> EMAIL_FILTER.add(email));
+        }
+    }
+
+    /**
+     * Начать пакетную запись email в фильтр и завершить ее вместе с текущей транзакцией
+     * Повторное добавление каждого email после фиксации потребовало бы хранить весь пакет,
+     * поэтому до завершения пакета фильтр удерживает массивы, замененные пересборкой
+     * @param session сессия с начатой транзакцией
+     */
+    private static void beginEmailBatch(Session session) {
+        long epoch = EMAIL_FILTER.beginBatch();
+        session.getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+                // Пакет завершается только после завершения транзакции
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                EMAIL_FILTER.endBatch(epoch, status == Status.STATUS_COMMITTED);
+            }
+        });
+    }
+
+    /**
+     * Удалить пользователей из ближнего кэша после завершения текущей транзакции
+     * @param session сессия с начатой транзакцией
+     * @param ids идентификаторы измененных пользователей
+     */
+    private static void invalidateNearCacheAfterCompletion(Session session, long... ids) {
+        runAfterCompletion(session, () -> {
+            for (long id : ids) {
+                NEAR_CACHE.invalidate(id);
+            }
+        });
+    }
+
+    /**
+     * Очистить ближний кэш после завершения текущей транзакции
+     * Используется массовыми операциями, затрагивающими заранее неизвестных пользователей
+     * @param session сессия с начатой транзакцией
+     */
+    private static void clearNearCacheAfterCompletion(Session session) {
+        runAfterCompletion(session, NEAR_CACHE::invalidateAll);
+    }
+
+    /**
+     * Учесть удаленных пользователей в живой статистике после фиксации текущей транзакции
+     * @param session сессия с начатой транзакцией
+     * @param ages возрасты удаленных пользователей (элементы могут быть null)
+     */
+    private static void recordDeletedAfterCommit(Session session, List<?> ages) {
+        if (ages.isEmpty()) {
+            return;
+        }
+        runAfterCommit(session, () -> {
+            for (Object age : ages) {
+                LIVE_STATISTICS.recordDeleted(age == null ? null : ((Number) age).intValue());
+            }
+            USER_COUNT.recordDeleted(ages.size());
+        });
+    }
+
+    /**
+     * Учесть изменение возраста пользователя в живой статистике после фиксации текущей транзакции
+     * @param session сессия с начатой транзакцией
+     * @param oldAge возраст до изменения (Number или null)
+     * @param newAge возраст после изменения (Number или null)
+     */
+    private static void recordAgeChangedAfterCommit(Session session, Object oldAge, Object newAge) {
+        Integer before = oldAge == null ? null : ((Number) oldAge).intValue();
+        Integer after = newAge == null ? null : ((Number) newAge).intValue();
+        if (!Objects.equals(before, after)) {
+            runAfterCommit(session, () -> LIVE_STATISTICS.recordAgeChanged(before, after));
+        }
+    }
+
+    /**
+     * Запросить сверку живой статистики после фиксации, если изменение по фильтру затрагивает возраст
+     * Прежние возрасты обновляемых записей неизвестны, поэтому статистика не изменяется напрямую
+     * @param session сессия с начатой транзакцией
+     * @param patch изменяемые поля
+     */
+    private static void markStatisticsDirtyAfterCommit(Session session, UserPatch patch) {
+        if (patch.hasAge()) {
+            runAfterCommit(session, LIVE_STATISTICS::markDirty);
+        }
+    }
+
+    /**
+     * Выполнить действие только после успешной фиксации текущей транзакции
+     * @param session сессия с начатой транзакцией
+     * @param action действие
+     */
+    private static void runAfterCommit(Session session, Runnable action) {
+        session.getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+                // Действие выполняется только после фиксации транзакции
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    action.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Выполнить действие после завершения (фиксации или отката) текущей транзакции
+     * @param session сессия с начатой транзакцией
+     * @param action действие
+     */
+    private static void runAfterCompletion(Session session, Runnable action) {
+        session.getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+                // Действие выполняется только после завершения транзакции
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * Проверить, вызвана ли ошибка конфликтом версий (оптимистической блокировкой)
+     * @param e исключение, полученное при сбросе или фиксации транзакции
+     * @return true если в цепочке причин есть StaleStateException или OptimisticLockException
+     */
+    private static boolean isStaleState(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof StaleStateException || cause instanceof OptimisticLockException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Проверить, что фильтр содержит условия
+     * Пустой фильтр затронул бы всю таблицу, поэтому для массовых операций он запрещен
+     * @param filter фильтр пользователей
+     */
+    private static void requireConditions(UserFilter filter) {
+        if (filter == null || filter.isEmpty()) {
+            throw new IllegalArgumentException("Фильтр массовой операции должен содержать хотя бы одно условие");
+        }
+    }
+
+    /**
+     * Откатить транзакцию, не маскируя исходную ошибку
+     * @param transaction транзакция или null, если она не была начата
+     * @param operation описание операции для лога
+     */
+    private static void rollbackQuietly(Transaction transaction, String operation) {
+        if (transaction != null) {
+            try {
+                transaction.rollback();
+                logger.warn("Транзакция отменена из-за ошибки при {}", operation);
+            } catch (Exception rollbackEx) {
+                logger.error("Ошибка при откате транзакции: {}", rollbackEx.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Результат удаления одной порции пользователей
+     */
+    private static final class DeletedChunk {
+        final int selected;
+        final int deleted;
+        final Long lastId;
+
+        DeletedChunk(int selected, int deleted, Long lastId) {
+            this.selected = selected;
+            this.deleted = deleted;
+            this.lastId = lastId;
         }
     }
 }
@@ -0,0 +1,139 @@
+package com.userservice.dao;
+
+import org.hibernate.query.Query;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Фильтр пользователей для массовых операций (обновление и удаление по условию)
+ * Условия объединяются через AND и превращаются в WHERE-часть HQL-запроса
+ * Пример: UserFilter.create().createdBefore(date).ageIsNull()
+ */
+public class UserFilter {
+
+    // HQL-условия с псевдонимом сущности "u"
+    private final List<String> conditions = new ArrayList<>();
+
+    // Значения именованных параметров условий
+    private final Map<String, Object> parameters = new LinkedHashMap<>();
+
+    /**
+     * Конструктор закрыт, используйте create()
+     */
+    private UserFilter() {
+    }
+
+    /**
+     * Создать пустой фильтр
+     * @return новый фильтр без условий
+     */
+    public static UserFilter create() {
+        return new UserFilter();
+    }
+
+    /**
+     * Пользователи, созданные строго раньше указанного момента
+     * @param moment граница по дате создания
+     * @return этот фильтр
+     */
+    public UserFilter createdBefore(LocalDateTime moment) {
+        return addCondition("u.createdAt < :%s", moment);
+    }
+
+    /**
+     * Пользователи, созданные не раньше указанного момента
+     * @param moment граница по дате создания
+     * @return этот фильтр
+     */
+    public UserFilter createdAfter(LocalDateTime moment) {
+        return addCondition("u.createdAt >= :%s", moment);
+    }
+
+    /**
+     * Пользователи без указанного возраста
+     * @return этот фильтр
+     */
+    public UserFilter ageIsNull() {
+        conditions.add("u.age IS NULL");
+        return this;
+    }
+
+    /**
+     * Пользователи с указанным возрастом
+     * @return этот фильтр
+     */
+    public UserFilter ageIsNotNull() {
+        conditions.add("u.age IS NOT NULL");
+        return this;
+    }
+
+    /**
+     * Пользователи с возрастом в диапазоне (границы включительно)
+     * @param min минимальный возраст
+     * @param max максимальный возраст
+     * @return этот фильтр
+     */
+    public UserFilter ageBetween(int min, int max) {
+        addCondition("u.age >= :%s", min);
+        return addCondition("u.age <= :%s", max);
+    }
+
+    /**
+     * Пользователи с email в указанном домене
+     * @param domain домен без символа @, например "example.com"
+     * @return этот фильтр
+     */
+    public UserFilter emailDomain(String domain) {
+        return addCondition("u.email LIKE :%s", "%@" + domain);
+    }
+
+    /**
+     * Проверить, задано ли хотя бы одно условие
+     * @return true если фильтр пустой
+     */
+    public boolean isEmpty() {
+        return conditions.isEmpty();
+    }
+
+    /**
+     * Сформировать WHERE-часть HQL-запроса (без ключевого слова WHERE)
+     * @return условия, объединенные через AND, для сущности с псевдонимом "u"
+     */
+    String toHql() {
+        return String.join(" AND ", conditions);
+    }
+
+    /**
+     * Установить значения параметров фильтра в запрос
+     * @param query запрос, построенный с использованием toHql()
+     */
+    void bindParameters(Query<?> query) {
+        parameters.forEach(query::setParameter);
+    }
+
+    /**
+     * Добавить условие с одним параметром
+     * @param template шаблон условия, %s заменяется именем параметра
+     * @param value значение параметра
+     * @return этот фильтр
+     */
+    private UserFilter addCondition(String template, Object value) {
+        String name = "f" + parameters.size();
+        conditions.add(String.format(template, name));
+        parameters.put(name, value);
+        return this;
+    }
+
+    /**
+     * Строковое представление фильтра для логирования
+     * @return HQL-условия фильтра
+     */
+    @Override
+    public String toString() {
+        return "UserFilter{" + toHql() + '}';
+    }
+}
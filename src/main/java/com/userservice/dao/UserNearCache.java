@@ -0,0 +1,236 @@
+package com.userservice.dao;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.userservice.dto.UserSnapshot;
+import com.userservice.util.CacheRegionMetrics;
+import com.userservice.util.EnvironmentSettings;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Ближний кэш пользователей в памяти приложения перед поиском по ID и по email
+ * Хранит неизменяемые снимки пользователей в кэше Caffeine и вторичный индекс email -> ID.
+ * Размер кэша ограничивается при каждой вставке (политика Window TinyLFU вытесняет редко
+ * используемые записи), а снимок старше USER_NEAR_CACHE_TTL_MS считается промахом, поэтому
+ * изменения в обход приложения видны не позже чем через этот интервал. Снимок и его запись
+ * в индексе добавляются и удаляются под блокировкой записи кэша по ID, поэтому индекс не
+ * указывает на чужого пользователя. Счетчик поколений не дает загрузке, начатой до
+ * инвалидации, вернуть в кэш прочитанные до изменения данные
+ */
+final class UserNearCache {
+
+    // Переменная окружения с максимальным количеством пользователей в кэше
+    private static final String MAX_SIZE_ENV = "USER_NEAR_CACHE_MAX_SIZE";
+
+    // Максимальное количество пользователей в кэше по умолчанию
+    private static final int DEFAULT_MAX_SIZE = 10_000;
+
+    // Переменная окружения со временем жизни снимка в миллисекундах
+    private static final String TTL_ENV = "USER_NEAR_CACHE_TTL_MS";
+
+    // Время жизни снимка по умолчанию
+    private static final Duration DEFAULT_TTL = Duration.ofMinutes(1);
+
+    // Общий экземпляр кэша: инвалидации любого DAO должны быть видны всем
+    private static final UserNearCache SHARED = fromEnvironment();
+
+    // Снимки пользователей по ID
+    private final Cache<Long, UserSnapshot> cache;
+    private final ConcurrentMap<Long, UserSnapshot> byId;
+
+    // Вторичный индекс email -> ID
+    private final ConcurrentMap<String, Long> idByEmail = new ConcurrentHashMap<>();
+
+    // Поколение кэша, увеличивается при каждой инвалидации
+    private final AtomicLong generation = new AtomicLong();
+
+    // Максимальное количество пользователей в кэше (0 - кэш выключен)
+    private final int maxSize;
+
+    // Статистика обращений
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Конструктор кэша
+     * @param maxSize максимальное количество пользователей (0 - кэш выключен)
+     * @param ttl время жизни снимка с момента загрузки
+     */
+    UserNearCache(int maxSize, Duration ttl) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Размер кэша не может быть отрицательным: " + maxSize);
+        }
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("Время жизни снимка должно быть положительным: " + ttl);
+        }
+        this.maxSize = maxSize;
+        // Слушатель выполняется в вызывающем потоке, чтобы индекс email очищался сразу после вытеснения
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl.toMillis(), TimeUnit.MILLISECONDS)
+                .executor(Runnable::run)
+                .removalListener(this::onRemoval)
+                .build();
+        this.byId = cache.asMap();
+    }
+
+    /**
+     * Создать кэш с параметрами из переменных окружения USER_NEAR_CACHE_MAX_SIZE и USER_NEAR_CACHE_TTL_MS
+     * @return кэш на 10000 пользователей со временем жизни снимка 1 минута, если переменные
+     * не заданы или некорректны
+     */
+    static UserNearCache fromEnvironment() {
+        return new UserNearCache(maxSizeFromEnvironment(), ttlFromEnvironment());
+    }
+
+    /**
+     * Получить размер кэша из переменной окружения USER_NEAR_CACHE_MAX_SIZE
+     * @return значение переменной или 10000, если переменная не задана или некорректна
+     */
+    private static int maxSizeFromEnvironment() {
+        return EnvironmentSettings.getInt(MAX_SIZE_ENV, DEFAULT_MAX_SIZE, 0);
+    }
+
+    /**
+     * Получить время жизни снимка из переменной окружения USER_NEAR_CACHE_TTL_MS
+     * @return значение переменной или 1 минута, если переменная не задана или некорректна
+     */
+    private static Duration ttlFromEnvironment() {
+        return EnvironmentSettings.getMillis(TTL_ENV, DEFAULT_TTL, 1);
+    }
+
+    /**
+     * Получить общий экземпляр кэша
+     * @return кэш, используемый UserDAO и BulkUserDAO
+     */
+    static UserNearCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Найти пользователя по ID в кэше или загрузить его
+     * @param id идентификатор пользователя
+     * @param loader загрузка пользователя из базы данных
+     * @return снимок пользователя или пустой Optional, если пользователь не найден
+     */
+    Optional<UserSnapshot> getById(long id, Supplier<Optional<UserSnapshot>> loader) {
+        UserSnapshot snapshot = cache.getIfPresent(id);
+        if (snapshot != null) {
+            hits.increment();
+            return Optional.of(snapshot);
+        }
+        return load(loader);
+    }
+
+    /**
+     * Найти пользователя по email в кэше или загрузить его
+     * @param email email пользователя
+     * @param loader загрузка пользователя из базы данных
+     * @return снимок пользователя или пустой Optional, если пользователь не найден
+     */
+    Optional<UserSnapshot> getByEmail(String email, Supplier<Optional<UserSnapshot>> loader) {
+        Long id = idByEmail.get(email);
+        if (id != null) {
+            UserSnapshot snapshot = cache.getIfPresent(id);
+            // Снимок мог быть удален, вытеснен или заменен после чтения индекса
+            if (snapshot != null && snapshot.getEmail().equals(email)) {
+                hits.increment();
+                return Optional.of(snapshot);
+            }
+        }
+        return load(loader);
+    }
+
+    /**
+     * Удалить пользователя из кэша вместе с его записью в индексе email
+     * @param id идентификатор пользователя
+     */
+    void invalidate(long id) {
+        generation.incrementAndGet();
+        byId.computeIfPresent(id, (key, snapshot) -> {
+            idByEmail.remove(snapshot.getEmail(), key);
+            return null;
+        });
+    }
+
+    /**
+     * Очистить кэш целиком (для изменений, затрагивающих заранее неизвестных пользователей)
+     */
+    void invalidateAll() {
+        generation.incrementAndGet();
+        for (Long id : byId.keySet()) {
+            invalidate(id);
+        }
+        cache.cleanUp();
+    }
+
+    /**
+     * Получить статистику кэша
+     * @param name имя кэша в статистике
+     * @return снимок попаданий, промахов, записей, вытеснений и количества пользователей
+     */
+    CacheRegionMetrics metrics(String name) {
+        return new CacheRegionMetrics(name, hits.sum(), misses.sum(), puts.sum(), evictions.sum(), cache.estimatedSize());
+    }
+
+    /**
+     * Загрузить пользователя и сохранить снимок, если за время загрузки не было инвалидаций
+     * @param loader загрузка пользователя из базы данных
+     * @return загруженный снимок
+     */
+    private Optional<UserSnapshot> load(Supplier<Optional<UserSnapshot>> loader) {
+        misses.increment();
+        long loadGeneration = generation.get();
+        Optional<UserSnapshot> loaded = loader.get();
+        if (loaded.isPresent() && maxSize > 0) {
+            put(loaded.get(), loadGeneration);
+        }
+        return loaded;
+    }
+
+    /**
+     * Сохранить снимок и запись индекса email
+     * @param snapshot снимок пользователя
+     * @param loadGeneration поколение кэша на момент начала загрузки
+     */
+    private void put(UserSnapshot snapshot, long loadGeneration) {
+        // Caffeine проверяет размер при самой вставке и при необходимости вытесняет другую запись
+        byId.compute(snapshot.getId(), (id, previous) -> {
+            // Во время загрузки была инвалидация: снимок мог быть прочитан до изменения
+            if (generation.get() != loadGeneration) {
+                return previous;
+            }
+            if (previous != null && !previous.getEmail().equals(snapshot.getEmail())) {
+                idByEmail.remove(previous.getEmail(), id);
+            }
+            idByEmail.put(snapshot.getEmail(), id);
+            puts.increment();
+            return snapshot;
+        });
+    }
+
+    /**
+     * Удалить запись индекса email для вытесненного или устаревшего снимка
+     * Явные удаления и замены обновляют индекс сами под блокировкой записи по ID
+     * @param id идентификатор пользователя
+     * @param snapshot удаленный снимок
+     * @param cause причина удаления
+     */
+    private void onRemoval(Long id, UserSnapshot snapshot, RemovalCause cause) {
+        if (cause.wasEvicted() && id != null && snapshot != null) {
+            idByEmail.remove(snapshot.getEmail(), id);
+            evictions.increment();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.userservice.dao;
+
+import com.userservice.entity.User;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Страница списка пользователей для постраничного просмотра по ключу (keyset pagination)
+ * Содержит пользователей страницы и непрозрачный токен продолжения для запроса следующей страницы
+ */
+public class UserPage {
+
+    // Разделитель полей внутри токена продолжения
+    private static final String CURSOR_SEPARATOR = "|";
+
+    // Пользователи текущей страницы
+    private final List<User> users;
+
+    // Токен следующей страницы, null если страница последняя
+    private final String nextCursor;
+
+    /**
+     * Конструктор страницы
+     * @param users пользователи страницы
+     * @param nextCursor токен следующей страницы или null
+     */
+    public UserPage(List<User> users, String nextCursor) {
+        this.users = Collections.unmodifiableList(users);
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Получить пользователей страницы
+     * @return неизменяемый список пользователей
+     */
+    public List<User> getUsers() {
+        return users;
+    }
+
+    /**
+     * Создать копию страницы с копиями пользователей
+     * Нужна, чтобы изменения пользователей на выданной странице не попадали в кэш результатов
+     * @return независимая копия страницы
+     */
+    UserPage copy() {
+        List<User> copies = new ArrayList<>(users.size());
+        for (User user : users) {
+            copies.add(new User(user));
+        }
+        return new UserPage(copies, nextCursor);
+    }
+
+    /**
+     * Получить токен следующей страницы
+     * @return токен продолжения или null, если страница последняя
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Проверить, есть ли следующая страница
+     * @return true если есть следующая страница
+     */
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+    /**
+     * Сформировать токен продолжения по последнему пользователю страницы
+     * @param last последний пользователь страницы
+     * @return непрозрачный токен (Base64 от created_at и id)
+     */
+    static String encodeCursor(User last) {
+        String raw = last.getCreatedAt() + CURSOR_SEPARATOR + last.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Позиция в списке, закодированная в токене продолжения
+     */
+    static final class Cursor {
+        final LocalDateTime createdAt;
+        final long id;
+
+        private Cursor(LocalDateTime createdAt, long id) {
+            this.createdAt = createdAt;
+            this.id = id;
+        }
+    }
+
+    /**
+     * Разобрать токен продолжения
+     * @param token токен, полученный из предыдущей страницы
+     * @return позиция, после которой начинается следующая страница
+     * @throws IllegalArgumentException если токен поврежден
+     */
+    static Cursor decodeCursor(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = raw.lastIndexOf(CURSOR_SEPARATOR);
+            return new Cursor(LocalDateTime.parse(raw.substring(0, separator)),
+                    Long.parseLong(raw.substring(separator + 1)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Некорректный токен страницы: " + token, e);
+        }
+    }
+}
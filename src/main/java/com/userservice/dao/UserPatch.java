@@ -0,0 +1,134 @@
+package com.userservice.dao;
+
+import org.hibernate.query.NativeQuery;
+import org.hibernate.query.Query;
+import org.hibernate.type.StandardBasicTypes;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Набор изменяемых полей пользователя для частичного обновления
+ * Записываются только явно установленные поля, остальные колонки не затрагиваются
+ * Пример: new UserPatch().setName("Иван").setAge(null)
+ */
+public class UserPatch {
+
+    // Изменяемые свойства сущности User и их новые значения (в порядке установки)
+    private final Map<String, Object> changes = new LinkedHashMap<>();
+
+    /**
+     * Установить новое имя
+     * @param name новое имя пользователя
+     * @return этот набор изменений
+     */
+    public UserPatch setName(String name) {
+        changes.put("name", name);
+        return this;
+    }
+
+    /**
+     * Установить новый email
+     * @param email новый email пользователя
+     * @return этот набор изменений
+     */
+    public UserPatch setEmail(String email) {
+        changes.put("email", email);
+        return this;
+    }
+
+    /**
+     * Установить новый возраст
+     * @param age новый возраст или null, чтобы очистить значение
+     * @return этот набор изменений
+     */
+    public UserPatch setAge(Integer age) {
+        changes.put("age", age);
+        return this;
+    }
+
+    /**
+     * Проверить, есть ли изменения
+     * @return true если ни одно поле не установлено
+     */
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    /**
+     * Проверить, изменяется ли email
+     * @return true если новый email установлен
+     */
+    public boolean hasEmail() {
+        return changes.containsKey("email");
+    }
+
+    /**
+     * Проверить, изменяется ли возраст
+     * @return true если новый возраст установлен (в том числе null)
+     */
+    public boolean hasAge() {
+        return changes.containsKey("age");
+    }
+
+    /**
+     * Получить новый email
+     * @return новый email или null, если email не изменяется
+     */
+    String getEmail() {
+        return (String) changes.get("email");
+    }
+
+    /**
+     * Сформировать SET-часть HQL-запроса (без ключевого слова SET)
+     * Всегда увеличивает версию записи, чтобы изменение было видно оптимистической блокировке
+     * @return присваивания для сущности с псевдонимом "u"
+     */
+    String toHql() {
+        StringBuilder assignments = new StringBuilder();
+        for (String property : changes.keySet()) {
+            assignments.append("u.").append(property).append(" = :p_").append(property).append(", ");
+        }
+        return assignments.append("u.version = u.version + 1").toString();
+    }
+
+    /**
+     * Сформировать SET-часть нативного SQL-запроса к таблице users (без ключевого слова SET)
+     * Имена изменяемых свойств совпадают с именами колонок
+     * @return присваивания для таблицы users с псевдонимом "u"
+     */
+    String toSql() {
+        StringBuilder assignments = new StringBuilder();
+        for (String column : changes.keySet()) {
+            assignments.append(column).append(" = :p_").append(column).append(", ");
+        }
+        return assignments.append("version = u.version + 1").toString();
+    }
+
+    /**
+     * Установить новые значения полей в запрос
+     * @param query запрос, построенный с использованием toHql()
+     */
+    void bindParameters(Query<?> query) {
+        changes.forEach((property, value) -> query.setParameter("p_" + property, value));
+    }
+
+    /**
+     * Установить новые значения полей в нативный запрос
+     * Типы указываются явно, чтобы PostgreSQL корректно принимал null
+     * @param query запрос, построенный с использованием toSql()
+     */
+    void bindParameters(NativeQuery<?> query) {
+        changes.forEach((column, value) -> query.setParameter("p_" + column, value,
+                "age".equals(column) ? StandardBasicTypes.INTEGER : StandardBasicTypes.STRING));
+    }
+
+    /**
+     * Строковое представление изменений для логирования
+     * @return список изменяемых полей
+     */
+    @Override
+    public String toString() {
+        return "UserPatch" + changes.keySet();
+    }
+}
@@ -0,0 +1,108 @@
+package com.userservice.dao;
+
+import com.userservice.util.EnvironmentSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Кэш результатов частых запросов к таблице users (количество пользователей, первая страница)
+ * Актуальность определяется версией таблицы: каждая запись через UserDAO или BulkUserDAO
+ * после завершения транзакции увеличивает версию, и все результаты, прочитанные при прежней
+ * версии, становятся недействительными. Изменения, сделанные в обход приложения, версию не
+ * меняют, поэтому возраст результата дополнительно ограничен максимальной устарелостью
+ */
+final class UserResultCache {
+
+    // Логгер для записи информации о работе кэша
+    private static final Logger logger = LoggerFactory.getLogger(UserResultCache.class);
+
+    // Переменная окружения с максимальной устарелостью результата в миллисекундах
+    private static final String MAX_STALENESS_ENV = "USER_RESULT_CACHE_MAX_STALENESS_MS";
+
+    // Максимальная устарелость результата по умолчанию
+    private static final Duration DEFAULT_MAX_STALENESS = Duration.ofSeconds(5);
+
+    // Версия таблицы users, общая для всех экземпляров DAO
+    private static final AtomicLong TABLE_VERSION = new AtomicLong();
+
+    // Максимальный возраст результата в наносекундах (0 - кэширование выключено)
+    private final long maxStalenessNanos;
+
+    // Закэшированные результаты по ключу запроса
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Конструктор кэша
+     * @param maxStaleness максимальный возраст результата (Duration.ZERO - кэширование выключено)
+     */
+    UserResultCache(Duration maxStaleness) {
+        if (maxStaleness.isNegative()) {
+            throw new IllegalArgumentException("Максимальная устарелость не может быть отрицательной: " + maxStaleness);
+        }
+        this.maxStalenessNanos = maxStaleness.toNanos();
+    }
+
+    /**
+     * Получить максимальную устарелость из переменной окружения USER_RESULT_CACHE_MAX_STALENESS_MS
+     * @return значение переменной или 5 секунд, если переменная не задана или некорректна
+     */
+    static Duration defaultMaxStaleness() {
+        return EnvironmentSettings.getMillis(MAX_STALENESS_ENV, DEFAULT_MAX_STALENESS, 0);
+    }
+
+    /**
+     * Увеличить версию таблицы users, сделав недействительными все закэшированные результаты
+     * Вызывается после завершения каждой изменяющей транзакции
+     */
+    static void bumpVersion() {
+        TABLE_VERSION.incrementAndGet();
+    }
+
+    /**
+     * Получить результат из кэша или вычислить его
+     * Версия таблицы запоминается до выполнения запроса: если во время запроса завершилась
+     * запись, результат сохраняется с прежней версией и не будет выдан повторно
+     * @param key ключ запроса
+     * @param loader запрос к базе данных
+     * @return актуальный закэшированный или новый результат
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(String key, Supplier<T> loader) {
+        if (maxStalenessNanos == 0) {
+            return loader.get();
+        }
+
+        long version = TABLE_VERSION.get();
+        long now = System.nanoTime();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.version == version && now - entry.loadedAtNanos <= maxStalenessNanos) {
+            logger.info("Результат запроса {} получен из кэша", key);
+            return (T) entry.value;
+        }
+
+        T value = loader.get();
+        entries.put(key, new Entry(version, now, value));
+        return value;
+    }
+
+    /**
+     * Закэшированный результат с версией таблицы и временем чтения
+     */
+    private static final class Entry {
+        final long version;
+        final long loadedAtNanos;
+        final Object value;
+
+        Entry(long version, long loadedAtNanos, Object value) {
+            this.version = version;
+            this.loadedAtNanos = loadedAtNanos;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.userservice.dto;
+
+import com.userservice.entity.User;
+
+import java.time.LocalDateTime;
+
+/**
+ * Неизменяемый снимок пользователя для хранения в кэше приложения
+ * В отличие от сущности User снимок можно безопасно разделять между потоками:
+ * вызывающий код получает из него новую отсоединенную сущность через toUser()
+ */
+public final class UserSnapshot {
+
+    // Идентификатор пользователя
+    private final Long id;
+
+    // Имя пользователя
+    private final String name;
+
+    // Email пользователя
+    private final String email;
+
+    // Возраст пользователя
+    private final Integer age;
+
+    // Дата создания пользователя
+    private final LocalDateTime createdAt;
+
+    // Версия записи
+    private final Long version;
+
+    /**
+     * Конструктор снимка
+     * @param user пользователь, состояние которого фиксируется
+     */
+    private UserSnapshot(User user) {
+        this.id = user.getId();
+        this.name = user.getName();
+        this.email = user.getEmail();
+        this.age = user.getAge();
+        this.createdAt = user.getCreatedAt();
+        this.version = user.getVersion();
+    }
+
+    /**
+     * Создать снимок текущего состояния пользователя
+     * @param user пользователь
+     * @return неизменяемый снимок
+     */
+    public static UserSnapshot of(User user) {
+        return new UserSnapshot(user);
+    }
+
+    /**
+     * Создать новую отсоединенную сущность с данными снимка
+     * @return новый объект User
+     */
+    public User toUser() {
+        User user = new User(name, email, age);
+        user.setId(id);
+        user.setCreatedAt(createdAt);
+        user.setVersion(version);
+        return user;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public Integer getAge() {
+        return age;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return "UserSnapshot{id=" + id + ", email='" + email + "', version=" + version + "}";
+    }
+}
@@ -0,0 +1,133 @@
+package com.userservice.dto;
+
+/**
+ * Неизменяемая сводная статистика пользователей
+ * Заполняется одним агрегирующим запросом на стороне базы данных, без загрузки сущностей.
+ * Показатели возраста считаются только по пользователям с указанным возрастом и равны null,
+ * если таких пользователей нет
+ */
+public final class UserStatistics {
+
+    // Общее количество пользователей
+    private final long totalUsers;
+
+    // Количество пользователей с указанным возрастом
+    private final long usersWithAge;
+
+    // Минимальный возраст
+    private final Integer minAge;
+
+    // Максимальный возраст
+    private final Integer maxAge;
+
+    // Средний возраст
+    private final Double averageAge;
+
+    // Медиана возраста
+    private final Double medianAge;
+
+    // 90-й перцентиль возраста
+    private final Double percentile90Age;
+
+    /**
+     * Конструктор статистики
+     * @param totalUsers общее количество пользователей
+     * @param usersWithAge количество пользователей с указанным возрастом
+     * @param minAge минимальный возраст или null
+     * @param maxAge максимальный возраст или null
+     * @param averageAge средний возраст или null
+     * @param medianAge медиана возраста или null
+     * @param percentile90Age 90-й перцентиль возраста или null
+     */
+    public UserStatistics(long totalUsers, long usersWithAge, Integer minAge, Integer maxAge,
+                          Double averageAge, Double medianAge, Double percentile90Age) {
+        this.totalUsers = totalUsers;
+        this.usersWithAge = usersWithAge;
+        this.minAge = minAge;
+        this.maxAge = maxAge;
+        this.averageAge = averageAge;
+        this.medianAge = medianAge;
+        this.percentile90Age = percentile90Age;
+    }
+
+    /**
+     * Получить общее количество пользователей
+     * @return количество пользователей
+     */
+    public long getTotalUsers() {
+        return totalUsers;
+    }
+
+    /**
+     * Получить количество пользователей с указанным возрастом
+     * @return количество пользователей с возрастом
+     */
+    public long getUsersWithAge() {
+        return usersWithAge;
+    }
+
+    /**
+     * Получить количество пользователей без указанного возраста
+     * @return количество пользователей без возраста
+     */
+    public long getUsersWithoutAge() {
+        return totalUsers - usersWithAge;
+    }
+
+    /**
+     * Получить минимальный возраст
+     * @return минимальный возраст или null, если возраст не указан ни у кого
+     */
+    public Integer getMinAge() {
+        return minAge;
+    }
+
+    /**
+     * Получить максимальный возраст
+     * @return максимальный возраст или null, если возраст не указан ни у кого
+     */
+    public Integer getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Получить средний возраст
+     * @return средний возраст или null, если возраст не указан ни у кого
+     */
+    public Double getAverageAge() {
+        return averageAge;
+    }
+
+    /**
+     * Получить медиану возраста
+     * @return медиана возраста или null, если возраст не указан ни у кого
+     */
+    public Double getMedianAge() {
+        return medianAge;
+    }
+
+    /**
+     * Получить 90-й перцентиль возраста
+     * @return 90-й перцентиль возраста или null, если возраст не указан ни у кого
+     */
+    public Double getPercentile90Age() {
+        return percentile90Age;
+    }
+
+    /**
+     * Строковое представление для удобного вывода
+     * @return строковое представление объекта UserStatistics
+     */
+    @Override
+    public String toString() {
+        return "UserStatistics{" +
+                "totalUsers=" + totalUsers +
+                ", usersWithAge=" + usersWithAge +
+                ", minAge=" + minAge +
+                ", maxAge=" + maxAge +
+                ", averageAge=" + averageAge +
+                ", medianAge=" + medianAge +
+                ", percentile90Age=" + percentile90Age +
+                '}';
+    }
+}
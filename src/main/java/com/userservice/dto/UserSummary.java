@@ -0,0 +1,91 @@
+package com.userservice.dto;
+
+import java.util.Objects;
+
+/**
+ * Краткое неизменяемое представление пользователя (ID, имя, email)
+ * Создается напрямую из результата запроса (SELECT new ...), минуя загрузку сущности User,
+ * поэтому не попадает в контекст персистентности и не требует снимков для dirty checking
+ */
+public final class UserSummary {
+
+    // Идентификатор пользователя
+    private final Long id;
+
+    // Имя пользователя
+    private final String name;
+
+    // Email пользователя
+    private final String email;
+
+    /**
+     * Конструктор, используемый в HQL-выражении SELECT new
+     * @param id идентификатор пользователя
+     * @param name имя пользователя
+     * @param email email пользователя
+     */
+    public UserSummary(Long id, String name, String email) {
+        this.id = id;
+        this.name = name;
+        this.email = email;
+    }
+
+    /**
+     * Получить ID пользователя
+     * @return ID пользователя
+     */
+    public Long getId() {
+        return id;
+    }
+
+    /**
+     * Получить имя пользователя
+     * @return имя пользователя
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Получить email пользователя
+     * @return email пользователя
+     */
+    public String getEmail() {
+        return email;
+    }
+
+    /**
+     * Сравнение по всем полям
+     * @param obj объект для сравнения
+     * @return true если объекты равны, false если нет
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null || getClass() != obj.getClass()) return false;
+        UserSummary that = (UserSummary) obj;
+        return Objects.equals(id, that.id) && Objects.equals(name, that.name) && Objects.equals(email, that.email);
+    }
+
+    /**
+     * Хэш-код по всем полям
+     * @return хэш-код объекта
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, name, email);
+    }
+
+    /**
+     * Строковое представление для удобного вывода
+     * @return строковое представление объекта UserSummary
+     */
+    @Override
+    public String toString() {
+        return "UserSummary{" +
+                "id=" + id +
+                ", name='" + name + '\'' +
+                ", email='" + email + '\'' +
+                '}';
+    }
+}
@@ -1,5 +1,11 @@
 package com.userservice.entity;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
+
 import javax.persistence.*;
 import java.time.LocalDateTime;
 
@@ -8,15 +14,46 @@ import java.time.LocalDateTime;
  * Использует аннотации Hibernate для маппинга с базой данных PostgreSQL
  */
 @Entity
-@Table(name = "users") // Таблица в базе данных будет называться 'users'
+@Table(name = "users", // Таблица в базе данных будет называться 'users'
+        // Составной индекс для постраничного просмотра по ключу (created_at, id) от новых к старым
+        indexes = @Index(name = "idx_users_created_at_id", columnList = "created_at DESC, id DESC"))
+// Частые запросы разбираются один раз при создании SessionFactory и всегда порождают один и тот же
+// текст SQL, поэтому драйвер PostgreSQL переиспользует для них серверные подготовленные выражения
+@NamedQueries({
+    @NamedQuery(name = User.COUNT_ALL, query = "SELECT COUNT(u) FROM User u")
+})
+// Кэш второго уровня: повторные чтения пользователя по ID не обращаются к базе данных.
+// READ_WRITE блокирует запись в кэше на время изменяющей транзакции, поэтому читатели
+// не получают устаревшие данные
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = User.CACHE_REGION)
+// Кэш соответствия email -> ID: поиск по email сначала разрешается в ID, затем читается кэш сущностей
+@NaturalIdCache(region = User.NATURAL_ID_CACHE_REGION)
 public class User {
 
+    // Регион кэша второго уровня для пользователей
+    public static final String CACHE_REGION = "users";
+
+    // Регион кэша соответствия email -> ID
+    public static final String NATURAL_ID_CACHE_REGION = "users-by-email";
+
+    // Имена именованных запросов
+    public static final String COUNT_ALL = "User.countAll";
+
+    // Последовательность идентификаторов и количество ID, выделяемых Hibernate за одно обращение к ней.
+    // Шаг последовательности в базе должен совпадать с ID_ALLOCATION_SIZE (проверяется при запуске)
+    public static final String ID_SEQUENCE = "users_id_seq";
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     /**
      * Уникальный идентификатор пользователя
-     * Генерируется автоматически при создании записи
+     * Генерируется из последовательности users_id_seq блоками по 50 значений (pooled-оптимизатор),
+     * поэтому Hibernate не обращается к базе за каждым ID и может группировать INSERT в JDBC-пакеты
+     * (при IDENTITY пакетная вставка отключается)
      */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "users_id_generator")
+    @SequenceGenerator(name = "users_id_generator", sequenceName = ID_SEQUENCE, allocationSize = ID_ALLOCATION_SIZE)
     @Column(name = "id")
     private Long id;
 
@@ -30,7 +67,9 @@ public class User {
     /**
      * Email пользователя
      * Обязательное поле, должно быть уникальным, максимальная длина 150 символов
+     * Естественный ключ пользователя; может изменяться, поэтому mutable = true
      */
+    @NaturalId(mutable = true)
     @Column(name = "email", nullable = false, unique = true, length = 150)
     private String email;
 
@@ -48,6 +87,16 @@ public class User {
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
 
+    /**
+     * Версия записи для оптимистической блокировки
+     * Увеличивается при каждом обновлении; UPDATE с устаревшей версией не изменяет ни одной строки,
+     * поэтому одновременные изменения одной записи обнаруживаются без блокировок
+     */
+    @Version
+    @ColumnDefault("0")
+    @Column(name = "version", nullable = false)
+    private Long version;
+
     /**
      * Конструктор по умолчанию
      * Необходим для работы Hibernate
@@ -69,6 +118,20 @@ public class User {
         this.createdAt = LocalDateTime.now(); // Устанавливаем текущую дату создания
     }
 
+    /**
+     * Конструктор копирования
+     * Создает отсоединенную копию пользователя со всеми полями, включая ID и версию
+     * @param other копируемый пользователь
+     */
+    public User(User other) {
+        this.id = other.id;
+        this.name = other.name;
+        this.email = other.email;
+        this.age = other.age;
+        this.createdAt = other.createdAt;
+        this.version = other.version;
+    }
+
     /**
      * Метод вызывается автоматически перед сохранением в базу данных
      * Устанавливает дату создания если она не была установлена
@@ -162,6 +225,22 @@ public class User {
         this.createdAt = createdAt;
     }
 
+    /**
+     * Получить версию записи
+     * @return версия записи или null, если пользователь еще не сохранен
+     */
+    public Long getVersion() {
+        return version;
+    }
+
+    /**
+     * Установить версию записи (используется Hibernate)
+     * @param version версия записи
+     */
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     /**
      * Переопределенный метод toString для удобного вывода информации о пользователе
      * @return строковое представление объекта User
@@ -174,6 +253,7 @@ public class User {
                 ", email='" + email + '\'' +
                 ", age=" + age +
                 ", createdAt=" + createdAt +
+                ", version=" + version +
                 '}';
     }
 
@@ -0,0 +1,86 @@
+package com.userservice.util;
+
+/**
+ * Снимок статистики региона кэша второго уровня
+ * Попадания, промахи и записи учитывает Hibernate, вытеснения по размеру и времени жизни -
+ * провайдер JCache (через JMX). Недоступный показатель равен -1
+ */
+public final class CacheRegionMetrics {
+
+    // Имя региона кэша
+    private final String region;
+
+    // Количество чтений, найденных в кэше
+    private final long hitCount;
+
+    // Количество чтений, не найденных в кэше
+    private final long missCount;
+
+    // Количество записей в кэш
+    private final long putCount;
+
+    // Количество записей, вытесненных по размеру или времени жизни
+    private final long evictionCount;
+
+    // Количество записей в кэше
+    private final long elementCount;
+
+    /**
+     * Конструктор снимка статистики
+     * @param region имя региона
+     * @param hitCount количество попаданий
+     * @param missCount количество промахов
+     * @param putCount количество записей в кэш
+     * @param evictionCount количество вытеснений или -1
+     * @param elementCount количество записей в кэше или -1
+     */
+    public CacheRegionMetrics(String region, long hitCount, long missCount, long putCount,
+                              long evictionCount, long elementCount) {
+        this.region = region;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.putCount = putCount;
+        this.evictionCount = evictionCount;
+        this.elementCount = elementCount;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getPutCount() {
+        return putCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public long getElementCount() {
+        return elementCount;
+    }
+
+    /**
+     * Получить долю чтений, обслуженных кэшем
+     * @return доля попаданий от 0 до 1 (0 если чтений не было)
+     */
+    public double getHitRatio() {
+        long total = hitCount + missCount;
+        return total == 0 ? 0 : hitCount / (double) total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CacheRegionMetrics{region='%s', hits=%d, misses=%d, hitRatio=%.3f, puts=%d, " +
+                             "evictions=%d, elements=%d}",
+                             region, hitCount, missCount, getHitRatio(), putCount, evictionCount, elementCount);
+    }
+}
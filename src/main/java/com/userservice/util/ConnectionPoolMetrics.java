@@ -0,0 +1,240 @@
+package com.userservice.util;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Метрики пула соединений HikariCP
+ * Предоставляет текущие показатели пула (активные, простаивающие соединения и потоки,
+ * ожидающие соединения) и гистограмму времени получения соединения из пула.
+ * Рост ожидающих потоков и времени получения показывает исчерпание пула раньше,
+ * чем оно станет заметно по времени ответа
+ */
+public class ConnectionPoolMetrics implements MetricsTrackerFactory {
+
+    // Верхние границы интервалов гистограммы времени получения соединения, в микросекундах
+    private static final long[] BUCKET_BOUNDS_MICROS = {
+        100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000,
+        100_000, 250_000, 500_000, 1_000_000, 2_500_000, 5_000_000, Long.MAX_VALUE
+    };
+
+    // Количество получений соединения в каждом интервале гистограммы
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_MICROS.length];
+
+    // Суммарное и максимальное время получения соединения
+    private final LongAdder acquireNanosTotal = new LongAdder();
+    private final AtomicLong acquireNanosMax = new AtomicLong();
+
+    // Количество получений соединения, завершившихся таймаутом
+    private final LongAdder timeouts = new LongAdder();
+
+    // Текущее состояние пула, передается HikariCP при создании пула
+    private volatile PoolStats poolStats;
+
+    /**
+     * Создать пустой набор метрик
+     */
+    public ConnectionPoolMetrics() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Создать трекер метрик для пула (вызывается HikariCP при запуске пула)
+     * @param poolName имя пула
+     * @param poolStats текущее состояние пула
+     * @return трекер, получающий события пула
+     */
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.poolStats = poolStats;
+        return new Tracker();
+    }
+
+    /**
+     * Получить количество соединений, выданных из пула в данный момент
+     * @return количество активных соединений
+     */
+    public int getActiveConnections() {
+        PoolStats stats = poolStats;
+        return stats != null ? stats.getActiveConnections() : 0;
+    }
+
+    /**
+     * Получить количество свободных соединений в пуле
+     * @return количество простаивающих соединений
+     */
+    public int getIdleConnections() {
+        PoolStats stats = poolStats;
+        return stats != null ? stats.getIdleConnections() : 0;
+    }
+
+    /**
+     * Получить количество потоков, ожидающих свободное соединение
+     * @return количество ожидающих потоков (больше 0 - пул исчерпан)
+     */
+    public int getPendingThreads() {
+        PoolStats stats = poolStats;
+        return stats != null ? stats.getPendingThreads() : 0;
+    }
+
+    /**
+     * Получить общее количество соединений пула
+     * @return количество открытых соединений
+     */
+    public int getTotalConnections() {
+        PoolStats stats = poolStats;
+        return stats != null ? stats.getTotalConnections() : 0;
+    }
+
+    /**
+     * Получить максимальный размер пула
+     * @return максимальное количество соединений
+     */
+    public int getMaxConnections() {
+        PoolStats stats = poolStats;
+        return stats != null ? stats.getMaxConnections() : 0;
+    }
+
+    /**
+     * Получить количество успешных получений соединения из пула
+     * @return количество получений соединения
+     */
+    public long getAcquisitionCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Получить количество получений соединения, завершившихся таймаутом
+     * @return количество таймаутов
+     */
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Получить среднее время получения соединения
+     * @return среднее время в миллисекундах (0 если соединения не выдавались)
+     */
+    public double getAverageAcquireMillis() {
+        long count = getAcquisitionCount();
+        return count == 0 ? 0 : acquireNanosTotal.sum() / (double) count / 1_000_000;
+    }
+
+    /**
+     * Получить максимальное время получения соединения
+     * @return максимальное время в миллисекундах
+     */
+    public double getMaxAcquireMillis() {
+        return acquireNanosMax.get() / 1_000_000.0;
+    }
+
+    /**
+     * Оценить перцентиль времени получения соединения по гистограмме
+     * Возвращается верхняя граница интервала, в который попадает перцентиль,
+     * поэтому оценка не меньше фактического значения
+     * @param percentile перцентиль от 0 до 100 (например, 99)
+     * @return оценка перцентиля в миллисекундах (0 если соединения не выдавались)
+     */
+    public double getAcquirePercentileMillis(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Перцентиль должен быть от 0 до 100: " + percentile);
+        }
+        long[] counts = getAcquireHistogram();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // Для последнего, неограниченного интервала возвращаем наблюдавшийся максимум
+                return BUCKET_BOUNDS_MICROS[i] == Long.MAX_VALUE
+                        ? getMaxAcquireMillis()
+                        : BUCKET_BOUNDS_MICROS[i] / 1_000.0;
+            }
+        }
+        return getMaxAcquireMillis();
+    }
+
+    /**
+     * Получить гистограмму времени получения соединения
+     * @return количество получений в каждом интервале, границы - getBucketBoundsMicros()
+     */
+    public long[] getAcquireHistogram() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * Получить верхние границы интервалов гистограммы
+     * @return границы в микросекундах, последняя граница - Long.MAX_VALUE
+     */
+    public static long[] getBucketBoundsMicros() {
+        return BUCKET_BOUNDS_MICROS.clone();
+    }
+
+    /**
+     * Краткая сводка метрик для лога
+     * @return строка с показателями пула
+     */
+    @Override
+    public String toString() {
+        return String.format(
+            "ConnectionPoolMetrics{active=%d, idle=%d, pending=%d, total=%d/%d, acquisitions=%d, timeouts=%d, " +
+            "acquireAvg=%.3fms, acquireP50=%.3fms, acquireP99=%.3fms, acquireMax=%.3fms}",
+            getActiveConnections(), getIdleConnections(), getPendingThreads(), getTotalConnections(),
+            getMaxConnections(), getAcquisitionCount(), getTimeoutCount(), getAverageAcquireMillis(),
+            getAcquirePercentileMillis(50), getAcquirePercentileMillis(99), getMaxAcquireMillis());
+    }
+
+    /**
+     * Учесть время получения соединения
+     * @param elapsedNanos время ожидания соединения в наносекундах
+     */
+    private void recordAcquire(long elapsedNanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(elapsedNanos);
+        int index = 0;
+        while (micros > BUCKET_BOUNDS_MICROS[index]) {
+            index++;
+        }
+        buckets[index].increment();
+        acquireNanosTotal.add(elapsedNanos);
+        acquireNanosMax.accumulateAndGet(elapsedNanos, Math::max);
+    }
+
+    /**
+     * Трекер событий пула, передающий их в метрики
+     */
+    private class Tracker implements IMetricsTracker {
+
+        @Override
+        public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+            recordAcquire(elapsedAcquiredNanos);
+        }
+
+        @Override
+        public void recordConnectionTimeout() {
+            timeouts.increment();
+        }
+    }
+}
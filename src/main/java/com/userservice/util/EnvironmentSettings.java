@@ -0,0 +1,102 @@
+package com.userservice.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+
+/**
+ * Чтение числовых настроек из переменных окружения
+ * Незаданная переменная заменяется значением по умолчанию, некорректная или выходящая
+ * за допустимые границы - значением по умолчанию с предупреждением в журнале
+ */
+public final class EnvironmentSettings {
+
+    // Логгер для записи предупреждений о некорректных значениях
+    private static final Logger logger = LoggerFactory.getLogger(EnvironmentSettings.class);
+
+    private EnvironmentSettings() {
+    }
+
+    /**
+     * Прочитать числовую переменную окружения
+     * @param name имя переменной
+     * @param defaultValue значение, если переменная не задана или некорректна
+     * @return значение переменной или значение по умолчанию
+     */
+    public static long getLong(String name, long defaultValue) {
+        return getLong(name, defaultValue, Long.MIN_VALUE);
+    }
+
+    /**
+     * Прочитать числовую переменную окружения не меньше минимального значения
+     * @param name имя переменной
+     * @param defaultValue значение, если переменная не задана или некорректна
+     * @param minValue минимальное допустимое значение
+     * @return значение переменной или значение по умолчанию
+     */
+    public static long getLong(String name, long defaultValue, long minValue) {
+        return read(name, defaultValue, minValue, Long.MAX_VALUE);
+    }
+
+    /**
+     * Прочитать целочисленную переменную окружения
+     * @param name имя переменной
+     * @param defaultValue значение, если переменная не задана или некорректна
+     * @return значение переменной или значение по умолчанию
+     */
+    public static int getInt(String name, int defaultValue) {
+        return getInt(name, defaultValue, Integer.MIN_VALUE);
+    }
+
+    /**
+     * Прочитать целочисленную переменную окружения не меньше минимального значения
+     * @param name имя переменной
+     * @param defaultValue значение, если переменная не задана или некорректна
+     * @param minValue минимальное допустимое значение
+     * @return значение переменной или значение по умолчанию
+     */
+    public static int getInt(String name, int defaultValue, int minValue) {
+        return (int) read(name, defaultValue, minValue, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Прочитать длительность в миллисекундах из переменной окружения
+     * @param name имя переменной
+     * @param defaultValue значение, если переменная не задана или некорректна
+     * @param minMillis минимальное допустимое значение в миллисекундах
+     * @return значение переменной или значение по умолчанию
+     */
+    public static Duration getMillis(String name, Duration defaultValue, long minMillis) {
+        String value = System.getenv(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return Duration.ofMillis(read(name, defaultValue.toMillis(), minMillis, Long.MAX_VALUE));
+    }
+
+    /**
+     * Прочитать переменную окружения и проверить границы
+     * @param name имя переменной
+     * @param defaultValue значение, если переменная не задана или некорректна
+     * @param minValue минимальное допустимое значение
+     * @param maxValue максимальное допустимое значение
+     * @return значение переменной или значение по умолчанию
+     */
+    private static long read(String name, long defaultValue, long minValue, long maxValue) {
+        String value = System.getenv(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            long parsed = Long.parseLong(value.trim());
+            if (parsed >= minValue && parsed <= maxValue) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Значение по умолчанию ниже
+        }
+        logger.warn("Некорректное значение {}={}, используется {}", name, value, defaultValue);
+        return defaultValue;
+    }
+}
@@ -1,17 +1,38 @@
 package com.userservice.util;
 
+import com.userservice.entity.User;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 import org.hibernate.SessionFactory;
 import org.hibernate.boot.registry.StandardServiceRegistry;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Properties;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Утилитарный класс для работы с Hibernate
  * Предоставляет централизованный доступ к SessionFactory
+ * Соединения выдает пул HikariCP, размер и таймауты которого задаются переменными окружения
+ * Чтения получают соединения из отдельного пула HikariCP, соединения которого постоянно
+ * находятся в режиме только для чтения
  */
 public class HibernateUtil {
 
@@ -21,6 +42,36 @@ public class HibernateUtil {
     // Единственный экземпляр SessionFactory для всего приложения
     private static SessionFactory sessionFactory;
 
+    // Пул соединений, через который работает SessionFactory
+    private static HikariDataSource dataSource;
+
+    // Пул соединений только для чтения, которым пользуются чтения UserDAO
+    private static HikariDataSource readOnlyDataSource;
+
+    // Метрики текущего пула соединений
+    private static ConnectionPoolMetrics poolMetrics = new ConnectionPoolMetrics();
+
+    // Метрики текущего пула соединений только для чтения
+    private static ConnectionPoolMetrics readPoolMetrics = new ConnectionPoolMetrics();
+
+    // Имена пулов в логах и JMX
+    private static final String POOL_NAME = "userservice-pool";
+    private static final String READ_POOL_NAME = "userservice-read-pool";
+
+    // Значения параметров пула по умолчанию
+    private static final int DEFAULT_POOL_MAX_SIZE = 10;
+    private static final long DEFAULT_CONNECTION_TIMEOUT_MS = 5_000;
+    private static final long DEFAULT_IDLE_TIMEOUT_MS = 600_000;
+    private static final long DEFAULT_MAX_LIFETIME_MS = 1_800_000;
+    private static final long DEFAULT_VALIDATION_TIMEOUT_MS = 3_000;
+    private static final long DEFAULT_KEEPALIVE_TIME_MS = 300_000;
+
+    // Значения параметров кэша подготовленных выражений драйвера PostgreSQL по умолчанию
+    // (совпадают со значениями самого драйвера; переопределяются переменными окружения DB_*)
+    private static final int DEFAULT_PREPARE_THRESHOLD = 5;
+    private static final int DEFAULT_STATEMENT_CACHE_QUERIES = 256;
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE_MIB = 5;
+
     // Статический блок для инициализации SessionFactory при загрузке класса
     static {
         try {
@@ -34,7 +85,8 @@ public class HibernateUtil {
 
     /**
      * Создает и настраивает SessionFactory
-     * Загружает конфигурацию из hibernate.cfg.xml и устанавливает параметры подключения из переменных окружения
+     * Загружает конфигурацию из hibernate.cfg.xml, создает пул соединений по параметрам
+     * подключения из переменных окружения и передает его Hibernate как DataSource
      */
     private static void buildSessionFactory() {
         try {
@@ -61,9 +113,6 @@ public class HibernateUtil {
             logger.info("Database: {}", pgDatabase);
             logger.info("User: {}", pgUser);
             
-            // Создаем Properties для настройки подключения
-            Properties props = new Properties();
-            
             // Преобразуем DATABASE_URL в формат JDBC, удаляя учетные данные из URL
             String jdbcUrl;
             String extractedUser = null;
@@ -115,8 +164,6 @@ public class HibernateUtil {
                 logger.info("Собираем URL подключения из компонентов: {}", jdbcUrl);
             }
             
-            props.setProperty("hibernate.connection.url", jdbcUrl);
-            
             // Устанавливаем учетные данные
             // Приоритет: отдельные переменные окружения > извлеченные из URL
             String finalUser = pgUser;
@@ -137,20 +184,20 @@ public class HibernateUtil {
                 logger.info("Используем пароль из PGPASSWORD");
             }
             
-            // Устанавливаем финальные учетные данные
-            if (finalUser != null && !finalUser.isEmpty()) {
-                props.setProperty("hibernate.connection.username", finalUser);
-            }
-            if (finalPassword != null && !finalPassword.isEmpty()) {
-                props.setProperty("hibernate.connection.password", finalPassword);
-            }
+            // При пересоздании SessionFactory закрываем прежний пул
+            closeDataSource();
             
-            // Применяем дополнительные настройки к конфигурации
-            configuration.addProperties(props);
+            // Создаем пул соединений с финальными учетными данными
+            dataSource = createDataSource(jdbcUrl, finalUser, finalPassword, false);
+            readOnlyDataSource = createDataSource(jdbcUrl, finalUser, finalPassword, true);
             
-            // Создаем StandardServiceRegistry с нашей конфигурацией
+            // Шаг последовательности ID проверяется до создания SessionFactory, чтобы не выдать пересекающиеся ID
+            verifyIdSequence(dataSource);
+            
+            // Создаем StandardServiceRegistry с нашей конфигурацией и пулом соединений
             StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
                     .applySettings(configuration.getProperties())
+                    .applySetting(AvailableSettings.DATASOURCE, dataSource)
                     .build();
             
             // Создаем SessionFactory
@@ -160,10 +207,143 @@ public class HibernateUtil {
             
         } catch (Exception e) {
             logger.error("Критическая ошибка при создании SessionFactory: {}", e.getMessage(), e);
+            closeDataSource();
             throw new RuntimeException("Не удалось создать SessionFactory", e);
         }
     }
 
+    /**
+     * Создать пул соединений HikariCP
+     * Параметры пула читаются из переменных окружения:
+     * DB_POOL_MAX_SIZE - максимальное количество соединений (по умолчанию 10),
+     * DB_POOL_MIN_IDLE - минимальное количество простаивающих соединений (по умолчанию равно максимуму),
+     * DB_POOL_CONNECTION_TIMEOUT_MS - максимальное ожидание свободного соединения (по умолчанию 5 секунд),
+     * DB_POOL_IDLE_TIMEOUT_MS - время простоя, после которого лишнее соединение закрывается (10 минут),
+     * DB_POOL_MAX_LIFETIME_MS - максимальное время жизни соединения (30 минут),
+     * DB_POOL_LEAK_DETECTION_MS - порог предупреждения о невозвращенном соединении (0 - выключено),
+     * DB_PREPARE_THRESHOLD - после скольких выполнений выражение подготавливается на сервере (по умолчанию 5,
+     * 0 - не подготавливать), DB_STATEMENT_CACHE_QUERIES и DB_STATEMENT_CACHE_SIZE_MIB - размер кэша
+     * подготовленных выражений каждого соединения (256 выражений и 5 МиБ),
+     * DB_READ_POOL_MAX_SIZE - максимальный размер пула только для чтения (по умолчанию равен DB_POOL_MAX_SIZE)
+     * @param jdbcUrl JDBC URL базы данных
+     * @param user имя пользователя или null
+     * @param password пароль или null
+     * @param readOnly true для пула соединений только для чтения
+     * @return настроенный пул соединений
+     */
+    private static HikariDataSource createDataSource(String jdbcUrl, String user, String password, boolean readOnly) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(readOnly ? READ_POOL_NAME : POOL_NAME);
+        config.setDriverClassName("org.postgresql.Driver");
+        config.setJdbcUrl(jdbcUrl);
+        if (user != null && !user.isEmpty()) {
+            config.setUsername(user);
+        }
+        if (password != null && !password.isEmpty()) {
+            config.setPassword(password);
+        }
+
+        // Размер пула: при всплеске нагрузки запросы ждут в очереди пула, а не открывают новые соединения
+        int maxPoolSize = EnvironmentSettings.getInt("DB_POOL_MAX_SIZE", DEFAULT_POOL_MAX_SIZE);
+        if (readOnly) {
+            maxPoolSize = EnvironmentSettings.getInt("DB_READ_POOL_MAX_SIZE", maxPoolSize);
+        }
+        config.setMaximumPoolSize(maxPoolSize);
+        config.setMinimumIdle(Math.min(EnvironmentSettings.getInt("DB_POOL_MIN_IDLE", maxPoolSize), maxPoolSize));
+
+        // Ожидание соединения ограничено: при исчерпании пула вызывающий получает ошибку, а не зависает
+        config.setConnectionTimeout(EnvironmentSettings.getLong("DB_POOL_CONNECTION_TIMEOUT_MS", DEFAULT_CONNECTION_TIMEOUT_MS));
+        config.setIdleTimeout(EnvironmentSettings.getLong("DB_POOL_IDLE_TIMEOUT_MS", DEFAULT_IDLE_TIMEOUT_MS));
+        config.setMaxLifetime(EnvironmentSettings.getLong("DB_POOL_MAX_LIFETIME_MS", DEFAULT_MAX_LIFETIME_MS));
+        config.setLeakDetectionThreshold(EnvironmentSettings.getLong("DB_POOL_LEAK_DETECTION_MS", 0));
+
+        // Проверка соединения перед выдачей (Connection.isValid) и периодическая проверка простаивающих
+        config.setValidationTimeout(DEFAULT_VALIDATION_TIMEOUT_MS);
+        config.setKeepaliveTime(DEFAULT_KEEPALIVE_TIME_MS);
+
+        // Драйвер PostgreSQL переписывает пакет INSERT в многострочный INSERT
+        config.addDataSourceProperty("reWriteBatchedInserts", "true");
+
+        // Кэш подготовленных выражений драйвера живет в физическом соединении, поэтому благодаря пулу
+        // повторяющиеся запросы из разных сессий выполняются без повторного разбора и планирования
+        config.addDataSourceProperty("prepareThreshold",
+                EnvironmentSettings.getInt("DB_PREPARE_THRESHOLD", DEFAULT_PREPARE_THRESHOLD));
+        config.addDataSourceProperty("preparedStatementCacheQueries",
+                EnvironmentSettings.getInt("DB_STATEMENT_CACHE_QUERIES", DEFAULT_STATEMENT_CACHE_QUERIES));
+        config.addDataSourceProperty("preparedStatementCacheSizeMiB",
+                EnvironmentSettings.getInt("DB_STATEMENT_CACHE_SIZE_MIB", DEFAULT_STATEMENT_CACHE_SIZE_MIB));
+
+        if (readOnly) {
+            // Флаг readOnly выставляется один раз при открытии физического соединения, а не при каждой
+            // выдаче из пула; readOnlyMode=always делает сессию PostgreSQL только для чтения и в режиме
+            // autocommit, поэтому одиночные чтения выполняются без BEGIN/COMMIT
+            config.setReadOnly(true);
+            config.addDataSourceProperty("readOnlyMode", "always");
+        }
+
+        // Новый пул получает новые метрики: счетчики прежнего пула к нему не относятся
+        ConnectionPoolMetrics metrics = new ConnectionPoolMetrics();
+        if (readOnly) {
+            readPoolMetrics = metrics;
+        } else {
+            poolMetrics = metrics;
+        }
+        config.setMetricsTrackerFactory(metrics);
+
+        logger.info("Пул соединений {}: максимум {}, минимум простаивающих {}, ожидание соединения {} мс",
+                    config.getPoolName(), config.getMaximumPoolSize(), config.getMinimumIdle(), config.getConnectionTimeout());
+        return new HikariDataSource(config);
+    }
+
+    /**
+     * Проверить, что шаг последовательности ID совпадает с allocationSize генератора User
+     * Pooled-оптимизатор Hibernate считает, что каждое значение последовательности открывает блок
+     * из User.ID_ALLOCATION_SIZE идентификаторов. В базе, созданной до перехода на последовательный
+     * генератор (колонка bigserial), шаг последовательности равен 1, и выданные блоки пересекались бы
+     * с существующими ID. Если последовательности еще нет, ее создаст hbm2ddl с нужным шагом
+     * @param dataSource пул соединений
+     * @throws IllegalStateException если шаг последовательности отличается от allocationSize
+     * @throws SQLException если не удалось прочитать параметры последовательности
+     */
+    private static void verifyIdSequence(DataSource dataSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT increment_by FROM pg_sequences " +
+                     "WHERE schemaname = current_schema() AND sequencename = ?")) {
+            statement.setString(1, User.ID_SEQUENCE);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    logger.info("Последовательность {} будет создана с шагом {}", User.ID_SEQUENCE, User.ID_ALLOCATION_SIZE);
+                    return;
+                }
+                long increment = resultSet.getLong(1);
+                if (increment != User.ID_ALLOCATION_SIZE) {
+                    throw new IllegalStateException(String.format(
+                            "Шаг последовательности %s равен %d, а генератор ID пользователей выделяет блоки по %d. " +
+                            "Выполните миграцию: ALTER SEQUENCE %s INCREMENT BY %d",
+                            User.ID_SEQUENCE, increment, User.ID_ALLOCATION_SIZE,
+                            User.ID_SEQUENCE, User.ID_ALLOCATION_SIZE));
+                }
+            }
+        }
+    }
+
+    /**
+     * Закрыть пулы соединений, если они были созданы
+     */
+    private static void closeDataSource() {
+        if (dataSource != null && !dataSource.isClosed()) {
+            logger.info("Закрываем пул соединений {}, итоговые метрики: {}", POOL_NAME, poolMetrics);
+            dataSource.close();
+        }
+        dataSource = null;
+        if (readOnlyDataSource != null && !readOnlyDataSource.isClosed()) {
+            logger.info("Закрываем пул соединений {}, итоговые метрики: {}", READ_POOL_NAME, readPoolMetrics);
+            readOnlyDataSource.close();
+        }
+        readOnlyDataSource = null;
+    }
+
     /**
      * Получить экземпляр SessionFactory
      * @return SessionFactory для работы с базой данных
@@ -176,6 +356,148 @@ public class HibernateUtil {
         return sessionFactory;
     }
 
+    /**
+     * Получить соединение из пула только для чтения
+     * Соединение уже находится в режиме только для чтения и в режиме autocommit; вызывающий
+     * код открывает на нем сессию и закрывает соединение после чтения, возвращая его в пул
+     * @return соединение только для чтения
+     * @throws SQLException если соединение не удалось получить за DB_POOL_CONNECTION_TIMEOUT_MS
+     */
+    public static Connection getReadOnlyConnection() throws SQLException {
+        getSessionFactory();
+        return readOnlyDataSource.getConnection();
+    }
+
+    /**
+     * Получить метрики пула соединений, через который работает SessionFactory
+     * Показатели активных, простаивающих соединений и ожидающих потоков отражают текущее
+     * состояние пула, гистограмма времени получения соединения накапливается с его запуска
+     * @return метрики пула соединений
+     */
+    public static ConnectionPoolMetrics getPoolMetrics() {
+        getSessionFactory();
+        return poolMetrics;
+    }
+
+    /**
+     * Получить метрики пула соединений только для чтения
+     * @return метрики пула соединений только для чтения
+     */
+    public static ConnectionPoolMetrics getReadPoolMetrics() {
+        getSessionFactory();
+        return readPoolMetrics;
+    }
+
+    /**
+     * Получить долю HQL-запросов, перевод которых в SQL взят из кэша планов запросов Hibernate
+     * Показатель относится только к Hibernate (разбор HQL) и не говорит о том, переиспользует ли
+     * PostgreSQL серверные подготовленные выражения - для этого см. getPreparedStatementMetrics
+     * @return доля попаданий от 0 до 1 (0 если запросов еще не было)
+     */
+    public static double getHqlPlanCacheHitRate() {
+        Statistics statistics = getSessionFactory().getStatistics();
+        long hits = statistics.getQueryPlanCacheHitCount();
+        long total = hits + statistics.getQueryPlanCacheMissCount();
+        return total == 0 ? 0 : hits / (double) total;
+    }
+
+    /**
+     * Получить количество JDBC-выражений, подготовленных с запуска SessionFactory
+     * @return количество вызовов prepareStatement
+     */
+    public static long getPreparedStatementCount() {
+        return getSessionFactory().getStatistics().getPrepareStatementCount();
+    }
+
+    /**
+     * Получить статистику серверных подготовленных выражений пула только для чтения
+     * Читается из pg_prepared_statements (нужен PostgreSQL 14+ с колонками generic_plans и
+     * custom_plans). Представление показывает выражения только своего серверного процесса,
+     * поэтому запрос выполняется на каждом соединении пула чтения, где выполняются частые
+     * запросы: все свободные соединения одновременно берутся из пула, занятые в снимок не
+     * попадают. Запрос выполняется через Statement без подготовки и сам в снимок не попадает.
+     * Выражения, вытесненные из кэша драйвера (DEALLOCATE), не учитываются. Параметры кэша
+     * драйвера задаются переменными DB_PREPARE_THRESHOLD, DB_STATEMENT_CACHE_QUERIES и
+     * DB_STATEMENT_CACHE_SIZE_MIB; значения по умолчанию совпадают со значениями драйвера
+     * @return снимок статистики или null, если она недоступна
+     */
+    public static PreparedStatementMetrics getPreparedStatementMetrics() {
+        getSessionFactory();
+        int poolConnections = readOnlyDataSource.getHikariPoolMXBean().getTotalConnections();
+        int idle = readOnlyDataSource.getHikariPoolMXBean().getIdleConnections();
+        List<Connection> connections = new ArrayList<>(idle);
+        try {
+            // Соединения удерживаются до конца снимка, чтобы пул не выдал одно и то же дважды
+            for (int i = 0; i < Math.max(1, idle); i++) {
+                connections.add(readOnlyDataSource.getConnection());
+            }
+            long prepared = 0;
+            long genericPlans = 0;
+            long customPlans = 0;
+            for (Connection connection : connections) {
+                try (Statement statement = connection.createStatement();
+                     ResultSet resultSet = statement.executeQuery(
+                             "SELECT count(*), coalesce(sum(generic_plans), 0), coalesce(sum(custom_plans), 0) " +
+                             "FROM pg_prepared_statements WHERE NOT from_sql")) {
+                    resultSet.next();
+                    prepared += resultSet.getLong(1);
+                    genericPlans += resultSet.getLong(2);
+                    customPlans += resultSet.getLong(3);
+                }
+            }
+            return new PreparedStatementMetrics(READ_POOL_NAME, connections.size(), poolConnections,
+                                                prepared, genericPlans, customPlans);
+        } catch (SQLException e) {
+            logger.warn("Не удалось получить статистику подготовленных выражений: {}", e.getMessage());
+            return null;
+        } finally {
+            for (Connection connection : connections) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    logger.warn("Ошибка при возврате соединения в пул: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Получить статистику региона кэша второго уровня
+     * @param region имя региона (например, User.CACHE_REGION)
+     * @return снимок попаданий, промахов, записей и вытеснений региона
+     */
+    public static CacheRegionMetrics getCacheRegionMetrics(String region) {
+        CacheRegionStatistics statistics = getSessionFactory().getStatistics().getDomainDataRegionStatistics(region);
+        return new CacheRegionMetrics(region, statistics.getHitCount(), statistics.getMissCount(),
+                                      statistics.getPutCount(), readCacheEvictions(region),
+                                      statistics.getElementCountInMemory());
+    }
+
+    /**
+     * Прочитать количество вытеснений из стандартной статистики JCache, опубликованной в JMX
+     * Hibernate не учитывает вытеснения, выполненные самим кэшем по размеру и времени жизни
+     * @param region имя региона (совпадает с именем кэша JCache)
+     * @return количество вытеснений или -1, если статистика кэша недоступна
+     */
+    private static long readCacheEvictions(String region) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Set<ObjectName> names = server.queryNames(
+                    new ObjectName("javax.cache:type=CacheStatistics,Cache=" + region + ",*"), null);
+            if (names.isEmpty()) {
+                return -1;
+            }
+            long evictions = 0;
+            for (ObjectName name : names) {
+                evictions += ((Number) server.getAttribute(name, "CacheEvictions")).longValue();
+            }
+            return evictions;
+        } catch (JMException e) {
+            logger.warn("Не удалось получить статистику кэша {}: {}", region, e.getMessage());
+            return -1;
+        }
+    }
+
     /**
      * Закрыть SessionFactory при завершении работы приложения
      * Освобождает все ресурсы, связанные с Hibernate
@@ -183,6 +505,11 @@ public class HibernateUtil {
     public static void shutdown() {
         if (sessionFactory != null && !sessionFactory.isClosed()) {
             logger.info("Закрываем SessionFactory");
+            logger.info("Доля попаданий в кэш планов HQL: {}, подготовлено JDBC-выражений: {}",
+                        String.format("%.3f", getHqlPlanCacheHitRate()), getPreparedStatementCount());
+            logger.info("Серверные подготовленные выражения: {}", getPreparedStatementMetrics());
+            logger.info("Кэш второго уровня: {}", getCacheRegionMetrics(User.CACHE_REGION));
+            logger.info("Кэш естественных ключей: {}", getCacheRegionMetrics(User.NATURAL_ID_CACHE_REGION));
             try {
                 sessionFactory.close();
                 logger.info("SessionFactory успешно закрыта");
@@ -190,6 +517,9 @@ public class HibernateUtil {
                 logger.error("Ошибка при закрытии SessionFactory: {}", e.getMessage(), e);
             }
         }
+        
+        // Пул передан Hibernate извне, поэтому закрываем его сами
+        closeDataSource();
     }
 
     /**
@@ -0,0 +1,96 @@
+package com.userservice.util;
+
+/**
+ * Снимок серверных подготовленных выражений соединений пула
+ * Суммирует pg_prepared_statements по просмотренным соединениям: у каждого соединения свой
+ * серверный процесс и свой набор подготовленных выражений, поэтому снимок относится только
+ * к соединениям, которые были свободны в момент снимка
+ */
+public final class PreparedStatementMetrics {
+
+    // Имя пула соединений
+    private final String pool;
+
+    // Количество просмотренных соединений
+    private final int connectionsSampled;
+
+    // Количество соединений в пуле на момент снимка
+    private final int poolConnections;
+
+    // Количество подготовленных на сервере выражений на просмотренных соединениях
+    private final long preparedStatements;
+
+    // Количество выполнений подготовленных выражений с общим планом
+    private final long genericPlanExecutions;
+
+    // Количество выполнений подготовленных выражений с планом, построенным под параметры
+    private final long customPlanExecutions;
+
+    /**
+     * Конструктор снимка
+     * @param pool имя пула соединений
+     * @param connectionsSampled количество просмотренных соединений
+     * @param poolConnections количество соединений в пуле
+     * @param preparedStatements количество подготовленных выражений
+     * @param genericPlanExecutions количество выполнений с общим планом
+     * @param customPlanExecutions количество выполнений с планом под параметры
+     */
+    public PreparedStatementMetrics(String pool, int connectionsSampled, int poolConnections, long preparedStatements,
+                                    long genericPlanExecutions, long customPlanExecutions) {
+        this.pool = pool;
+        this.connectionsSampled = connectionsSampled;
+        this.poolConnections = poolConnections;
+        this.preparedStatements = preparedStatements;
+        this.genericPlanExecutions = genericPlanExecutions;
+        this.customPlanExecutions = customPlanExecutions;
+    }
+
+    public String getPool() {
+        return pool;
+    }
+
+    public int getConnectionsSampled() {
+        return connectionsSampled;
+    }
+
+    public int getPoolConnections() {
+        return poolConnections;
+    }
+
+    public long getPreparedStatements() {
+        return preparedStatements;
+    }
+
+    public long getGenericPlanExecutions() {
+        return genericPlanExecutions;
+    }
+
+    public long getCustomPlanExecutions() {
+        return customPlanExecutions;
+    }
+
+    /**
+     * Получить общее количество выполнений подготовленных выражений
+     * @return сумма выполнений с общим планом и с планом под параметры
+     */
+    public long getExecutions() {
+        return genericPlanExecutions + customPlanExecutions;
+    }
+
+    /**
+     * Получить среднее количество выполнений одного подготовленного выражения
+     * Значение около 1 означает, что выражения почти не переиспользуются
+     * @return выполнений на выражение (0 если выражений нет)
+     */
+    public double getExecutionsPerStatement() {
+        return preparedStatements == 0 ? 0 : getExecutions() / (double) preparedStatements;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PreparedStatementMetrics{pool='%s', connections=%d/%d, statements=%d, " +
+                             "genericPlanExecutions=%d, customPlanExecutions=%d, executionsPerStatement=%.1f}",
+                             pool, connectionsSampled, poolConnections, preparedStatements,
+                             genericPlanExecutions, customPlanExecutions, getExecutionsPerStatement());
+    }
+}